@@ -0,0 +1,122 @@
+package com.boomylabs.listly.data.rx;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import io.reactivex.Scheduler;
+import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * {@link SchedulersProvider} backed by named, bounded thread pools. Idle threads are released
+ * after {@link #KEEP_ALIVE_SECONDS}, work beyond the pool size waits in the pool's queue.
+ */
+@Singleton
+public class AppSchedulersProvider implements SchedulersProvider {
+
+    public enum Pool {
+        NETWORK, DATABASE, COMPUTATION
+    }
+
+    private static final int NETWORK_POOL_SIZE = 4;
+    private static final int DATABASE_POOL_SIZE = 1;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private final ThreadPoolExecutor networkExecutor;
+    private final ThreadPoolExecutor databaseExecutor;
+    private final ThreadPoolExecutor computationExecutor;
+
+    private final Scheduler network;
+    private final Scheduler database;
+    private final Scheduler computation;
+
+    @Inject
+    public AppSchedulersProvider() {
+        networkExecutor = createExecutor("listly-network", NETWORK_POOL_SIZE);
+        databaseExecutor = createExecutor("listly-database", DATABASE_POOL_SIZE);
+        computationExecutor = createExecutor("listly-computation",
+                Math.max(1, Runtime.getRuntime().availableProcessors()));
+
+        network = Schedulers.from(networkExecutor);
+        database = Schedulers.from(databaseExecutor);
+        computation = Schedulers.from(computationExecutor);
+    }
+
+    @Override
+    public Scheduler ui() {
+        return AndroidSchedulers.mainThread();
+    }
+
+    @Override
+    public Scheduler network() {
+        return network;
+    }
+
+    @Override
+    public Scheduler database() {
+        return database;
+    }
+
+    @Override
+    public Scheduler computation() {
+        return computation;
+    }
+
+    /** Tasks waiting for a free thread of the pool. */
+    public int getQueueDepth(Pool pool) {
+        return getExecutor(pool).getQueue().size();
+    }
+
+    /** Threads of the pool currently running a task. */
+    public int getActiveThreadCount(Pool pool) {
+        return getExecutor(pool).getActiveCount();
+    }
+
+    public int getMaxThreadCount(Pool pool) {
+        return getExecutor(pool).getMaximumPoolSize();
+    }
+
+    private ThreadPoolExecutor getExecutor(Pool pool) {
+        switch (pool) {
+            case NETWORK:
+                return networkExecutor;
+            case DATABASE:
+                return databaseExecutor;
+            case COMPUTATION:
+                return computationExecutor;
+            default:
+                throw new IllegalArgumentException("Unknown pool " + pool + "!");
+        }
+    }
+
+    private static ThreadPoolExecutor createExecutor(String name, int size) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(size, size, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), new NamedThreadFactory(name));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final String name;
+        private final AtomicInteger counter = new AtomicInteger();
+
+        NamedThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(@NonNull Runnable runnable) {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.boomylabs.listly.ui.widgets;
 import android.content.Context;
 import android.content.res.TypedArray;
 import android.graphics.Rect;
+import android.graphics.Typeface;
 import android.graphics.drawable.Drawable;
 import android.support.annotation.Nullable;
 import android.support.v7.widget.AppCompatTextView;
@@ -12,6 +13,9 @@ import android.util.AttributeSet;
 
 import com.boomylabs.listly.R;
 
+import java.util.ArrayList;
+import java.util.WeakHashMap;
+
 public class CenteredDrawableTextView extends AppCompatTextView {
     private static final int LEFT = 0, RIGHT = 2;
     private static final int TOP = 1, BOTTOM = 3;
@@ -20,12 +24,29 @@ public class CenteredDrawableTextView extends AppCompatTextView {
     private static final int PERFORMED_TOP_OFFSET = 0x4;
     private static final int PERFORMED_BOTTOM_OFFSET = 0x8;
 
+    // Values of the compoundDrawableScaleMode attribute
+    private static final int SCALE_MODE_STRETCH = 0;
+    private static final int SCALE_MODE_FIT = 1;
+
+    // Scaled sizes shared by all instances using the same drawable resource, one per set of size
+    // and scale mode attributes the drawable is used with.
+    // Views are inflated on the main thread only, so no synchronization is needed.
+    private static final WeakHashMap<Drawable.ConstantState, ArrayList<ScaledSize>> SCALED_SIZES = new WeakHashMap<>();
+
     // Pre-allocate objects for layout measuring
     private Rect textBounds = new Rect();
     private Rect drawableBounds = new Rect();
 
+    // Last text measurement, reused while text, typeface, text size and available width are unchanged
+    private char[] measuredChars = new char[16];
+    private int measuredLength = -1;
+    private Typeface measuredTypeface;
+    private float measuredTextSize;
+    private int measuredAvailableWidth = -1;
+
     private int drawablesWidth = 0;
     private int drawablesHeight = 0;
+    private int scaleMode = SCALE_MODE_STRETCH;
 
     private short mPerformedOffset = 0;
 
@@ -52,6 +73,8 @@ public class CenteredDrawableTextView extends AppCompatTextView {
                 R.styleable.CenteredDrawableTextView_compoundDrawableWidth, 0);
         drawablesHeight = typedArray.getDimensionPixelSize(
                 R.styleable.CenteredDrawableTextView_compoundDrawableHeight, 0);
+        scaleMode = typedArray.getInt(
+                R.styleable.CenteredDrawableTextView_compoundDrawableScaleMode, SCALE_MODE_STRETCH);
 
         typedArray.recycle();
 
@@ -61,68 +84,76 @@ public class CenteredDrawableTextView extends AppCompatTextView {
     }
 
     private void scale(Drawable[] drawables) {
-        if (drawablesWidth > 0 || drawablesHeight > 0) {
-            for (Drawable drawable : drawables) {
-                if (drawable == null) {
-                    continue;
-                }
+        for (Drawable drawable : drawables) {
+            if (drawable == null) {
+                continue;
+            }
 
-                Rect realBounds = new Rect(0, 0, drawable.getIntrinsicWidth(), drawable.getIntrinsicHeight());
-                float actualDrawableWidth = realBounds.width();
-                float actualDrawableHeight = realBounds.height();
-                float actualDrawableRatio = actualDrawableHeight / actualDrawableWidth;
-
-                float scale = 0;
-                // check if both width and height defined then adjust drawable size according to the ratio
-                if (drawablesWidth > 0 || drawablesHeight > 0) {
-                    //float placeholderRatio = drawablesHeight / (float) drawablesWidth;
-                    //if (placeholderRatio > actualDrawableRatio) {
-                    //    scale = drawablesWidth / actualDrawableWidth;
-                    //} else {
-                    //    scale = drawablesHeight / actualDrawableHeight;
-                    //}
-                    actualDrawableWidth = drawablesWidth;
-                    actualDrawableHeight = drawablesHeight;
-                } else if (drawablesHeight > 0) { // only height defined
-                    scale = drawablesHeight / actualDrawableHeight;
-                } else { // only width defined
-                    scale = drawablesWidth / actualDrawableWidth;
-                }
+            if (drawablesWidth > 0 || drawablesHeight > 0) {
+                scale(drawable);
+            } else {
+                drawable.setBounds(0, 0, drawable.getIntrinsicWidth(), drawable.getIntrinsicHeight());
+            }
+        }
+    }
 
-                if (scale != 0) {
-                    actualDrawableWidth = actualDrawableWidth * scale;
-                    actualDrawableHeight = actualDrawableHeight * scale;
+    private void scale(Drawable drawable) {
+        final Drawable.ConstantState constantState = drawable.getConstantState();
+        final ArrayList<ScaledSize> scaledSizes = constantState != null ? SCALED_SIZES.get(constantState) : null;
+        if (scaledSizes != null) {
+            for (int i = 0; i < scaledSizes.size(); i++) {
+                ScaledSize scaledSize = scaledSizes.get(i);
+                if (scaledSize.isScaledFor(drawablesWidth, drawablesHeight, scaleMode)) {
+                    drawable.setBounds(0, 0, scaledSize.width, scaledSize.height);
+                    return;
                 }
+            }
+        }
 
-                realBounds.right = realBounds.left + Math.round(actualDrawableWidth);
-                realBounds.bottom = realBounds.top + Math.round(actualDrawableHeight);
-
-                drawable.setBounds(realBounds);
+        float actualDrawableWidth = drawable.getIntrinsicWidth();
+        float actualDrawableHeight = drawable.getIntrinsicHeight();
+        float scale = 0;
+        if (actualDrawableWidth <= 0 || actualDrawableHeight <= 0) {
+            // no intrinsic size (e.g. color drawables), use the requested size as is
+            actualDrawableWidth = drawablesWidth > 0 ? drawablesWidth : drawablesHeight;
+            actualDrawableHeight = drawablesHeight > 0 ? drawablesHeight : drawablesWidth;
+        } else if (drawablesWidth > 0 && drawablesHeight > 0) {
+            if (scaleMode == SCALE_MODE_FIT) {
+                // keep aspect ratio, fit into the placeholder
+                scale = Math.min(drawablesWidth / actualDrawableWidth, drawablesHeight / actualDrawableHeight);
+            } else {
+                actualDrawableWidth = drawablesWidth;
+                actualDrawableHeight = drawablesHeight;
             }
-        } else {
-            for (Drawable drawable : drawables) {
-                if (drawable == null) {
-                    continue;
-                }
+        } else if (drawablesHeight > 0) { // only height defined
+            scale = drawablesHeight / actualDrawableHeight;
+        } else { // only width defined
+            scale = drawablesWidth / actualDrawableWidth;
+        }
 
-                drawable.setBounds(new Rect(0, 0, drawable.getIntrinsicWidth(), drawable.getIntrinsicHeight()));
+        if (scale != 0) {
+            actualDrawableWidth = actualDrawableWidth * scale;
+            actualDrawableHeight = actualDrawableHeight * scale;
+        }
+
+        final int width = Math.round(actualDrawableWidth);
+        final int height = Math.round(actualDrawableHeight);
+        if (constantState != null) {
+            ArrayList<ScaledSize> sizes = scaledSizes;
+            if (sizes == null) {
+                sizes = new ArrayList<>(1);
+                SCALED_SIZES.put(constantState, sizes);
             }
+            sizes.add(new ScaledSize(drawablesWidth, drawablesHeight, scaleMode, width, height));
         }
+        drawable.setBounds(0, 0, width, height);
     }
 
     @Override
     public void setCompoundDrawables(@Nullable Drawable left, @Nullable Drawable top, @Nullable Drawable right, @Nullable Drawable bottom) {
         if (textBounds != null) {
-            final CharSequence text = getText();
-            if (!TextUtils.isEmpty(text)) {
-                TextPaint textPaint = getPaint();
-                textPaint.getTextBounds(text.toString(), 0, text.length(), textBounds);
-            } else {
-                textBounds.setEmpty();
-            }
-
             final int width = getWidth() - (getPaddingLeft() + getPaddingRight());
-            final int height = getHeight() - (getPaddingTop() + getPaddingBottom());
+            measureText(width);
 
             if (left != null) {
                 left.copyBounds(drawableBounds);
@@ -151,16 +182,9 @@ public class CenteredDrawableTextView extends AppCompatTextView {
             return;
         }
 
-        final CharSequence text = getText();
-        if (!TextUtils.isEmpty(text)) {
-            TextPaint textPaint = getPaint();
-            textPaint.getTextBounds(text.toString(), 0, text.length(), textBounds);
-        } else {
-            textBounds.setEmpty();
-        }
-
         final int width = getWidth() - (getPaddingLeft() + getPaddingRight());
         final int height = getHeight() - (getPaddingTop() + getPaddingBottom());
+        measureText(width);
 
         final Drawable[] drawables = getCompoundDrawables();
 
@@ -198,4 +222,68 @@ public class CenteredDrawableTextView extends AppCompatTextView {
             mPerformedOffset |= PERFORMED_BOTTOM_OFFSET;
         }
     }
+
+    /**
+     * Measures the current text into {@link #textBounds} without allocating a String.
+     * Keeps the previous bounds if nothing affecting the measurement changed.
+     */
+    private void measureText(int availableWidth) {
+        final CharSequence text = getText();
+        final TextPaint textPaint = getPaint();
+        final int length = TextUtils.isEmpty(text) ? 0 : text.length();
+
+        if (length == measuredLength
+                && availableWidth == measuredAvailableWidth
+                && textPaint.getTypeface() == measuredTypeface
+                && textPaint.getTextSize() == measuredTextSize
+                && isMeasuredText(text, length)) {
+            return;
+        }
+
+        if (measuredChars.length < length) {
+            measuredChars = new char[Math.max(length, measuredChars.length * 2)];
+        }
+        if (length > 0) {
+            TextUtils.getChars(text, 0, length, measuredChars, 0);
+            textPaint.getTextBounds(measuredChars, 0, length, textBounds);
+        } else {
+            textBounds.setEmpty();
+        }
+
+        measuredLength = length;
+        measuredAvailableWidth = availableWidth;
+        measuredTypeface = textPaint.getTypeface();
+        measuredTextSize = textPaint.getTextSize();
+    }
+
+    private boolean isMeasuredText(CharSequence text, int length) {
+        for (int i = 0; i < length; i++) {
+            if (text.charAt(i) != measuredChars[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class ScaledSize {
+        final int requestedWidth;
+        final int requestedHeight;
+        final int scaleMode;
+        final int width;
+        final int height;
+
+        ScaledSize(int requestedWidth, int requestedHeight, int scaleMode, int width, int height) {
+            this.requestedWidth = requestedWidth;
+            this.requestedHeight = requestedHeight;
+            this.scaleMode = scaleMode;
+            this.width = width;
+            this.height = height;
+        }
+
+        boolean isScaledFor(int requestedWidth, int requestedHeight, int scaleMode) {
+            return this.requestedWidth == requestedWidth
+                    && this.requestedHeight == requestedHeight
+                    && this.scaleMode == scaleMode;
+        }
+    }
 }
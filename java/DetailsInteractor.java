@@ -1,15 +1,27 @@
 package com.boomylabs.listly.data.interactor;
 
+import android.support.annotation.Nullable;
+
 import com.boomylabs.listly.data.Converter;
 import com.boomylabs.listly.data.http.ListlyApiDecorator;
 import com.boomylabs.listly.data.model.dto.ListItemResponse;
 import com.boomylabs.listly.data.model.presentation.ListItemSetup;
 import com.boomylabs.listly.data.model.test.ListItem;
 import com.boomylabs.listly.data.model.test.ListItemType;
+import com.boomylabs.listly.data.rx.RetryPolicy;
+import com.boomylabs.listly.data.rx.SchedulersProvider;
 import com.boomylabs.listly.persistence.IListItemRepository;
 import com.boomylabs.listly.ui.common.pagination.Page;
 
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -17,45 +29,123 @@ import javax.inject.Singleton;
 import io.reactivex.Completable;
 import io.reactivex.Observable;
 import io.reactivex.Single;
+import io.reactivex.disposables.Disposable;
 import io.reactivex.schedulers.Schedulers;
 
 @Singleton
 public class DetailsInteractor {
 
     private static final int DEFAULT_LIST_ITEM_PAGE_SIZE = 10;
+    private static final PageSizePolicy DEFAULT_PAGE_SIZE_POLICY = PageSizePolicy.fixed(DEFAULT_LIST_ITEM_PAGE_SIZE);
+    private static final int DEFAULT_PREFETCH_DISTANCE = 5;
+    private static final int MAX_CONCURRENT_EMOJI_REQUESTS = 4;
 
     private final ListlyApiDecorator apiDecorator;
     private final IListItemRepository listItemRepository;
+    // wraps the page requests only, so pages served from the cache neither pass nor trip the breaker
+    private final RetryPolicy pageRetryPolicy;
+    private final ListItemPageCache pageCache = new ListItemPageCache();
+    private final Map<String, Disposable> revalidations = new ConcurrentHashMap<>();
+    // at most one prefetched page per list, the one following the cursor it was requested at
+    private final Map<String, PrefetchedPage> prefetchedPages = new ConcurrentHashMap<>();
+    // cursor, row count and completion of each list as last written here, so scrolling does not query the repository
+    private final Map<String, ListState> listStates = new ConcurrentHashMap<>();
+    private final Map<ListItemPageKey, Single<Page<ListItem>>> inFlightRequests = new ConcurrentHashMap<>();
+    private final AtomicLong issuedRequestCount = new AtomicLong();
+    private final AtomicLong collapsedRequestCount = new AtomicLong();
 
     @Inject
     DetailsInteractor(ListlyApiDecorator apiDecorator,
-                      IListItemRepository listItemRepository) {
+                      IListItemRepository listItemRepository,
+                      SchedulersProvider schedulers) {
         this.apiDecorator = apiDecorator;
         this.listItemRepository = listItemRepository;
+        this.pageRetryPolicy = new RetryPolicy.Builder()
+                .setInitialDelay(1, TimeUnit.SECONDS)
+                .setMaxDelay(30, TimeUnit.SECONDS)
+                .setMaxAttempts(6)
+                .setScheduler(schedulers.computation())
+                .build();
+    }
+
+    public ListItemPageCache getPageCache() {
+        return pageCache;
     }
 
     public Single<Page<ListItem>> getListItemsForId(String listId, String searchQuery,
                                                     String sortType, List<String> filters,
                                                     int page, int amount) {
-        return apiDecorator.retrieveListItems(listId, searchQuery, sortType, filters, page, amount)
+        ListItemPageKey key = new ListItemPageKey(listId, ListItemType.LIST, searchQuery, sortType, filters,
+                page, amount);
+        return singleFlight(key, apiDecorator.retrieveListItems(listId, searchQuery, sortType, filters, page, amount)
                 .subscribeOn(Schedulers.io())
                 .zipWith(Observable.just(amount), Converter::toPage)
-                .firstOrError();
+                .firstOrError());
     }
 
     public Single<Page<ListItem>> getQueuedListItemsForId(String listId, String searchQuery,
                                                           String sortType, List<String> filters,
                                                           int page, int amount) {
-        return apiDecorator.retrieveQueuedListItems(listId, searchQuery, sortType, filters, page, amount)
+        ListItemPageKey key = new ListItemPageKey(listId, ListItemType.QUEUE, searchQuery, sortType, filters,
+                page, amount);
+        return singleFlight(key, apiDecorator.retrieveQueuedListItems(listId, searchQuery, sortType, filters, page, amount)
                 .subscribeOn(Schedulers.io())
                 .zipWith(Observable.just(amount), Converter::toPage)
-                .firstOrError();
+                .firstOrError());
+    }
+
+    /** Number of page requests actually sent to the backend. */
+    public long getIssuedRequestCount() {
+        return issuedRequestCount.get();
+    }
+
+    /** Number of page requests that joined an identical request already in flight. */
+    public long getCollapsedRequestCount() {
+        return collapsedRequestCount.get();
+    }
+
+    /**
+     * Subscribers asking for a page while an identical request is in flight share that request
+     * and its result instead of sending another one. The request is cancelled when its last
+     * subscriber is disposed, and forgotten once it finishes or is cancelled, so a later
+     * subscriber fetches the page again.
+     */
+    private Single<Page<ListItem>> singleFlight(ListItemPageKey key, Single<Page<ListItem>> request) {
+        return Single.defer(() -> {
+            Single<Page<ListItem>> inFlight = inFlightRequests.get(key);
+            if (inFlight != null) {
+                collapsedRequestCount.incrementAndGet();
+                return inFlight;
+            }
+            AtomicReference<Single<Page<ListItem>>> self = new AtomicReference<>();
+            Single<Page<ListItem>> shared = request
+                    .doOnSubscribe(disposable -> issuedRequestCount.incrementAndGet())
+                    .doFinally(() -> inFlightRequests.remove(key, self.get()))
+                    .toObservable()
+                    .share()
+                    .singleOrError();
+            self.set(shared);
+            inFlight = inFlightRequests.putIfAbsent(key, shared);
+            if (inFlight != null) {
+                collapsedRequestCount.incrementAndGet();
+                return inFlight;
+            }
+            return shared;
+        });
+    }
+
+    /** Requests the {@code amount} items that follow the cursor, with the setup of the cursor. */
+    public Single<Page<ListItem>> getListItemsForId(String listId, ListItemCursor cursor, int amount) {
+        return fetchPage(new ListItemPageKey(listId, ListItemType.LIST, cursor, amount));
+    }
+
+    public Single<Page<ListItem>> getQueuedListItemsForId(String listId, ListItemCursor cursor, int amount) {
+        return fetchPage(new ListItemPageKey(listId, ListItemType.QUEUE, cursor, amount));
     }
 
     public Single<ListItem> toogleUpvote(ListItem listItem) {
-        return apiDecorator.toggleUpvoteListItem(listItem.getId(), listItem.getListItemType())
-                .map(ListItemResponse::getItem)
-                .take(1).singleOrError()
+        return requestUpvoteToggle(listItem)
+                .doOnSuccess(ignored -> pageCache.invalidateItem(listItem.getId()))
                 .flatMap(updatedListItem ->
                     listItemRepository.updateListItem(updatedListItem.getListItemType(), updatedListItem)
                         .toSingleDefault(updatedListItem)
@@ -63,15 +153,58 @@ public class DetailsInteractor {
     }
 
     public Single<ListItem> toggleEmoji(ListItem listItem, String emojiAlias) {
-        return apiDecorator.toggleListItemEmoji(listItem.getId(), emojiAlias, listItem.getListItemType())
-                .map(ListItemResponse::getItem)
-                .take(1).singleOrError()
+        return requestEmojiToggle(listItem, emojiAlias)
+                .doOnSuccess(ignored -> pageCache.invalidateItem(listItem.getId()))
                 .flatMap(updatedListItem ->
                         listItemRepository.updateListItem(updatedListItem.getListItemType(), updatedListItem)
                                 .toSingleDefault(updatedListItem)
                 );
     }
 
+    /**
+     * Sends a batch of coalesced toggles and writes the updated items to the repository in one pass
+     * once every call has finished. A failing call does not fail the batch, it is reported in its result.
+     */
+    public Single<List<EmojiMutationResult>> applyEmojiToggles(List<EmojiToggle> toggles) {
+        return Observable.fromIterable(toggles)
+                .flatMap(toggle -> requestToggle(toggle)
+                                .map(updatedListItem -> EmojiMutationResult.success(toggle, updatedListItem))
+                                .onErrorReturn(error -> EmojiMutationResult.failure(toggle, error))
+                                .toObservable(),
+                        MAX_CONCURRENT_EMOJI_REQUESTS)
+                .toList()
+                .flatMap(results -> {
+                    List<Completable> updates = new ArrayList<>(results.size());
+                    for (EmojiMutationResult result : results) {
+                        ListItem updatedListItem = result.getUpdatedItem();
+                        if (updatedListItem != null) {
+                            pageCache.invalidateItem(updatedListItem.getId());
+                            updates.add(listItemRepository.updateListItem(
+                                    updatedListItem.getListItemType(), updatedListItem));
+                        }
+                    }
+                    return Completable.concat(updates).toSingleDefault(results);
+                });
+    }
+
+    private Single<ListItem> requestToggle(EmojiToggle toggle) {
+        return toggle.isUpvote()
+                ? requestUpvoteToggle(toggle.getListItem())
+                : requestEmojiToggle(toggle.getListItem(), toggle.getEmojiAlias());
+    }
+
+    private Single<ListItem> requestUpvoteToggle(ListItem listItem) {
+        return apiDecorator.toggleUpvoteListItem(listItem.getId(), listItem.getListItemType())
+                .map(ListItemResponse::getItem)
+                .take(1).singleOrError();
+    }
+
+    private Single<ListItem> requestEmojiToggle(ListItem listItem, String emojiAlias) {
+        return apiDecorator.toggleListItemEmoji(listItem.getId(), emojiAlias, listItem.getListItemType())
+                .map(ListItemResponse::getItem)
+                .take(1).singleOrError();
+    }
+
     /** List Items **/
 
     public Observable<java.util.List<ListItem>> getListItemRepository(String listId, ListItemType type) {
@@ -86,58 +219,325 @@ public class DetailsInteractor {
         ).filter(page -> page.getItems().size() > 0 || page.isCompleted());
     }
 
+    /**
+     * Refreshes the first page for the given setup. A cached page is stored right away
+     * and revalidated in the background, otherwise the page is fetched from the network.
+     */
     public Completable refreshListItems(String listId, ListItemType listItemType, ListItemSetup setup) {
-        Single<Page<ListItem>> listItemPageSingle;
-        switch (listItemType) {
+        return refreshListItems(listId, listItemType, setup, DEFAULT_PAGE_SIZE_POLICY);
+    }
+
+    public Completable refreshListItems(String listId, ListItemType listItemType, ListItemSetup setup,
+                                        int pageSize) {
+        return refreshListItems(listId, listItemType, setup, PageSizePolicy.fixed(pageSize));
+    }
+
+    public Completable refreshListItems(String listId, ListItemType listItemType, ListItemSetup setup,
+                                        PageSizePolicy pageSizePolicy) {
+        ListItemPageKey key = new ListItemPageKey(listId, listItemType, ListItemCursor.start(setup),
+                pageSizePolicy.getInitialPageSize());
+        Completable remoteRefresh = fetchPage(key, pageSizePolicy)
+                .doOnSuccess(listItemPage -> pageCache.put(key, listItemPage))
+                .flatMapCompletable(listItemPage -> storeRefreshedPage(listId, listItemType, setup, listItemPage));
+
+        // decided per subscription, so a retry looks at the cache again
+        return Completable.defer(() -> {
+            dropPrefetchedPages(listId, listItemType);
+            Page<ListItem> cachedPage = pageCache.get(key);
+            if (cachedPage == null) {
+                cancelRevalidation(listId, listItemType);
+                return remoteRefresh;
+            }
+            return storeRefreshedPage(listId, listItemType, setup, cachedPage)
+                    .doOnComplete(() -> revalidate(listId, listItemType, remoteRefresh));
+        });
+    }
+
+    /**
+     * Drops the cached and prefetched pages of the list, e.g. after an item was deleted or moved
+     * between the list and the queue, so they are not written back over the local change.
+     */
+    public void invalidateCachedPages(String listId) {
+        for (ListItemType listItemType : ListItemType.values()) {
+            pageCache.invalidate(listId, listItemType);
+            dropPrefetchedPages(listId, listItemType);
+            listStates.remove(listKey(listId, listItemType));
+        }
+    }
+
+    private void revalidate(String listId, ListItemType listItemType, Completable remoteRefresh) {
+        Disposable revalidation = remoteRefresh.onErrorComplete().subscribe();
+        Disposable previous = revalidations.put(listKey(listId, listItemType), revalidation);
+        if (previous != null) {
+            previous.dispose();
+        }
+    }
+
+    private void cancelRevalidation(String listId, ListItemType listItemType) {
+        Disposable previous = revalidations.remove(listKey(listId, listItemType));
+        if (previous != null) {
+            previous.dispose();
+        }
+    }
+
+    private static String listKey(String listId, ListItemType listItemType) {
+        return listId + ":" + listItemType;
+    }
+
+    /**
+     * Stores a freshly fetched first page of the list and its completion in one repository write.
+     * <p>
+     * If the stored rows were loaded with the same setup and still start with the same items,
+     * only the items that changed are updated, and the deeper pages and the cursor are kept.
+     * Otherwise, e.g. after the search, sort or filters changed or items were inserted or removed
+     * on the server, the rows are replaced by the page and the cursor starts over after it.
+     * Nothing is written if neither the rows nor the completion changed.
+     */
+    private Completable storeRefreshedPage(String listId, ListItemType listItemType, ListItemSetup setup,
+                                           Page<ListItem> listItemPage) {
+        java.util.List<ListItem> freshItems = listItemPage.getItems();
+        boolean completed = listItemPage.isCompleted();
+        return Single.zip(
+                listItemRepository.getListItems(listId, listItemType),
+                listItemRepository.getListItemsAreCompletedObservable(listId, listItemType).firstOrError(),
+                listItemRepository.getListItemsCursor(listId, listItemType)
+                        .map(cursor -> cursor.isFor(setup))
+                        .toSingle(false),
+                (storedItems, storedCompleted, sameSetup) -> {
+                    boolean sameRows = sameSetup
+                            && startsWithIds(storedItems, freshItems)
+                            && (!completed || storedItems.size() == freshItems.size());
+                    String listKey = listKey(listId, listItemType);
+                    if (!sameRows) {
+                        ListItemCursor cursor = ListItemCursor.start(setup).advance(freshItems);
+                        return listItemRepository.setListItems(listId, listItemType, freshItems, completed, cursor)
+                                .doOnComplete(() -> listStates.put(listKey,
+                                        new ListState(cursor, freshItems.size(), completed)));
+                    }
+                    List<ListItem> changedItems = changedItems(storedItems, freshItems);
+                    if (changedItems.isEmpty() && completed == storedCompleted) {
+                        return Completable.complete();
+                    }
+                    // the stored cursor is kept, the state is read again when it is needed
+                    listStates.remove(listKey);
+                    return listItemRepository.updateListItems(listId, listItemType, changedItems, completed);
+                })
+                .flatMapCompletable(store -> store);
+    }
+
+    private static boolean startsWithIds(List<ListItem> storedItems, List<ListItem> freshItems) {
+        if (storedItems.size() < freshItems.size()) {
+            return false;
+        }
+        for (int i = 0; i < freshItems.size(); i++) {
+            if (!storedItems.get(i).getId().equals(freshItems.get(i).getId())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Fresh items that differ from the stored item at the same position. */
+    private static List<ListItem> changedItems(List<ListItem> storedItems, List<ListItem> freshItems) {
+        List<ListItem> changedItems = new ArrayList<>();
+        for (int i = 0; i < freshItems.size(); i++) {
+            ListItem freshItem = freshItems.get(i);
+            if (!freshItem.equals(storedItems.get(i))) {
+                changedItems.add(freshItem);
+            }
+        }
+        return changedItems;
+    }
+
+    private Single<Page<ListItem>> fetchPage(ListItemPageKey key, PageSizePolicy pageSizePolicy) {
+        return Single.defer(() -> {
+            long startMillis = PageSizePolicy.now();
+            return fetchPage(key)
+                    .doOnSuccess(ignored -> pageSizePolicy.onPageLoaded(PageSizePolicy.now() - startMillis));
+        });
+    }
+
+    /**
+     * Fetches the keyset page of the key, the items following {@link ListItemPageKey#getAfterItemId()}.
+     * Failed requests are retried and counted by the circuit breaker, including background
+     * revalidations and prefetches.
+     */
+    private Single<Page<ListItem>> fetchPage(ListItemPageKey key) {
+        switch (key.getListItemType()) {
             case LIST:
-                listItemPageSingle = getListItemsForId(listId, setup.getSearchQuery(), setup.getSortOption(),
-                        setup.getFilters(), 1, DEFAULT_LIST_ITEM_PAGE_SIZE);
-                break;
+                return singleFlight(key, apiDecorator.retrieveListItems(key.getListId(), key.getSearchQuery(),
+                        key.getSortOption(), key.getFilters(), key.getAfterItemId(), key.getPageSize())
+                        .subscribeOn(Schedulers.io())
+                        .zipWith(Observable.just(key.getPageSize()), Converter::toPage)
+                        .firstOrError()
+                        .compose(pageRetryPolicy.forSingle()));
             case QUEUE:
-                listItemPageSingle = getQueuedListItemsForId(listId, setup.getSearchQuery(), setup.getSortOption(),
-                        setup.getFilters(), 1, DEFAULT_LIST_ITEM_PAGE_SIZE);
-                break;
+                return singleFlight(key, apiDecorator.retrieveQueuedListItems(key.getListId(), key.getSearchQuery(),
+                        key.getSortOption(), key.getFilters(), key.getAfterItemId(), key.getPageSize())
+                        .subscribeOn(Schedulers.io())
+                        .zipWith(Observable.just(key.getPageSize()), Converter::toPage)
+                        .firstOrError()
+                        .compose(pageRetryPolicy.forSingle()));
             default:
-                listItemPageSingle = Single.error(new IllegalStateException("ListItemType cannot be null!"));
-                break;
+                return Single.error(new IllegalStateException("ListItemType cannot be null!"));
         }
-        return listItemPageSingle.flatMapCompletable(listItemPage -> {
-                    java.util.List<ListItem> listItems = listItemPage.getItems();
-                    return Completable.concatArray(
-                            listItemRepository.clearAll(),
-                            listItemRepository.setListItems(listId, listItemType, listItems),
-                            listItemRepository.setListItemsAreCompleted(listId, listItemType,
-                                    listItems.size() < DEFAULT_LIST_ITEM_PAGE_SIZE)
-                    );
-                });
     }
 
     public Completable loadMoreListItems(String listId, ListItemType listItemType, ListItemSetup setup) {
-        return listItemRepository.getListItems(listId, listItemType)
-                .flatMap(listItems -> {
-                    int pageNumber = (int) Math.ceil(1.0 * listItems.size() / DEFAULT_LIST_ITEM_PAGE_SIZE) + 1;
-                    switch (listItemType) {
-                        case LIST:
-                            return getListItemsForId(listId, setup.getSearchQuery(), setup.getSortOption(),
-                                    setup.getFilters(),
-                                    pageNumber,
-                                    DEFAULT_LIST_ITEM_PAGE_SIZE);
-                        case QUEUE:
-                            return getQueuedListItemsForId(listId, setup.getSearchQuery(), setup.getSortOption(),
-                                    setup.getFilters(),
-                                    pageNumber,
-                                    DEFAULT_LIST_ITEM_PAGE_SIZE);
-                        default:
-                            return Single.error(new IllegalStateException("ListItemType cannot be null!"));
+        return loadMoreListItems(listId, listItemType, setup, DEFAULT_PAGE_SIZE_POLICY);
+    }
+
+    public Completable loadMoreListItems(String listId, ListItemType listItemType, ListItemSetup setup,
+                                         int pageSize) {
+        return loadMoreListItems(listId, listItemType, setup, PageSizePolicy.fixed(pageSize));
+    }
+
+    public Completable loadMoreListItems(String listId, ListItemType listItemType, ListItemSetup setup,
+                                         PageSizePolicy pageSizePolicy) {
+        return Completable.fromAction(pageSizePolicy::onLoadMoreRequested)
+                .andThen(listItemRepository.getListItems(listId, listItemType))
+                .flatMapCompletable(storedItems -> currentCursor(listId, listItemType, setup, storedItems)
+                        .flatMapCompletable(cursor -> {
+                            Single<Page<ListItem>> prefetchedPage = takePrefetchedPage(listId, listItemType, cursor);
+                            return (prefetchedPage != null
+                                    ? prefetchedPage
+                                    : fetchPage(nextPageKey(listId, listItemType, cursor, pageSizePolicy), pageSizePolicy))
+                                    .flatMapCompletable(listItemPage ->
+                                            appendPage(listId, listItemType, cursor, storedItems, listItemPage)
+                                    );
+                        }));
+    }
+
+    /**
+     * Appends the items of the page that are not stored yet, and stores the completion and the
+     * cursor moved past the page in the same repository write.
+     * Items are deduplicated against the snapshot taken before the page was fetched, so this
+     * relies on the presenter never running two loads of the same list at once.
+     */
+    private Completable appendPage(String listId, ListItemType listItemType, ListItemCursor cursor,
+                                   List<ListItem> storedItems, Page<ListItem> listItemPage) {
+        Set<String> storedIds = new HashSet<>(storedItems.size() * 2);
+        for (ListItem storedItem : storedItems) {
+            storedIds.add(storedItem.getId());
+        }
+        List<ListItem> newItems = new ArrayList<>(listItemPage.getItems().size());
+        for (ListItem listItem : listItemPage.getItems()) {
+            if (storedIds.add(listItem.getId())) {
+                newItems.add(listItem);
+            }
+        }
+        ListState state = new ListState(cursor.advance(listItemPage.getItems()),
+                storedItems.size() + newItems.size(), listItemPage.isCompleted());
+        return listItemRepository.addListItems(listId, listItemType, newItems, state.completed, state.cursor)
+                .doOnComplete(() -> listStates.put(listKey(listId, listItemType), state));
+    }
+
+    /**
+     * Cursor stored next to the list if it belongs to the setup, or one following the last stored
+     * row if the rows were stored without a cursor.
+     */
+    private Single<ListItemCursor> currentCursor(String listId, ListItemType listItemType, ListItemSetup setup,
+                                                 List<ListItem> storedItems) {
+        return listItemRepository.getListItemsCursor(listId, listItemType)
+                .filter(cursor -> cursor.isFor(setup))
+                .toSingle(ListItemCursor.start(setup).advance(storedItems));
+    }
+
+    public Completable prefetchNextPage(String listId, ListItemType listItemType, ListItemSetup setup,
+                                        int lastVisiblePosition) {
+        return prefetchNextPage(listId, listItemType, setup, lastVisiblePosition, DEFAULT_PREFETCH_DISTANCE,
+                DEFAULT_PAGE_SIZE_POLICY);
+    }
+
+    /**
+     * Requests the page after the locally stored items in the background once the last visible
+     * position is within {@code prefetchDistance} items of the end. The page is kept in memory
+     * until {@link #loadMoreListItems} asks for it.
+     * <p>
+     * The decision is made from the cursor and row count this interactor last wrote for the list,
+     * so the repository is only read the first time the list is scrolled.
+     */
+    public Completable prefetchNextPage(String listId, ListItemType listItemType, ListItemSetup setup,
+                                        int lastVisiblePosition, int prefetchDistance,
+                                        PageSizePolicy pageSizePolicy) {
+        String listKey = listKey(listId, listItemType);
+        return Single.defer(() -> {
+            ListState state = listStates.get(listKey);
+            return state != null ? Single.just(state) : loadListState(listId, listItemType, setup);
+        })
+                .filter(state -> !state.completed && state.cursor.isFor(setup)
+                        && state.storedCount - lastVisiblePosition <= prefetchDistance)
+                .flatMapCompletable(state -> {
+                    PrefetchedPage existing = prefetchedPages.get(listKey);
+                    if (existing != null && existing.follows(listId, listItemType, state.cursor)) {
+                        return Completable.complete();
                     }
-                })
-                .flatMapCompletable(listItemPage -> {
-                    java.util.List<ListItem> listItems = listItemPage.getItems();
-                    return Completable.concatArray(
-                            listItemRepository.addListItems(listId, listItemType, listItems),
-                            listItemRepository.setListItemsAreCompleted(listId, listItemType,
-                                    listItems.size() < DEFAULT_LIST_ITEM_PAGE_SIZE)
-                    );
+                    // the page size is frozen here, loadMore picks the page up by cursor
+                    ListItemPageKey key = nextPageKey(listId, listItemType, state.cursor, pageSizePolicy);
+                    PrefetchedPage prefetched = new PrefetchedPage(key, fetchPage(key, pageSizePolicy).cache());
+                    prefetchedPages.put(listKey, prefetched);
+                    return prefetched.page.ignoreElement()
+                            .doOnError(ignored -> prefetchedPages.remove(listKey, prefetched))
+                            .onErrorComplete();
                 });
     }
+
+    private Single<ListState> loadListState(String listId, ListItemType listItemType, ListItemSetup setup) {
+        return listItemRepository.getListItems(listId, listItemType)
+                .flatMap(storedItems -> Single.zip(
+                        currentCursor(listId, listItemType, setup, storedItems),
+                        listItemRepository.getListItemsAreCompletedObservable(listId, listItemType).firstOrError(),
+                        (cursor, completed) -> new ListState(cursor, storedItems.size(), completed)
+                ))
+                .doOnSuccess(state -> listStates.put(listKey(listId, listItemType), state));
+    }
+
+    /**
+     * Removes and returns the page prefetched for the list if it follows the cursor,
+     * whatever page size it was requested with.
+     */
+    @Nullable
+    private Single<Page<ListItem>> takePrefetchedPage(String listId, ListItemType listItemType,
+                                                      ListItemCursor cursor) {
+        PrefetchedPage prefetched = prefetchedPages.remove(listKey(listId, listItemType));
+        if (prefetched == null || !prefetched.follows(listId, listItemType, cursor)) {
+            return null;
+        }
+        return prefetched.page;
+    }
+
+    private static ListItemPageKey nextPageKey(String listId, ListItemType listItemType, ListItemCursor cursor,
+                                               PageSizePolicy pageSizePolicy) {
+        return new ListItemPageKey(listId, listItemType, cursor, pageSizePolicy.nextPageSize(cursor.getLoadedCount()));
+    }
+
+    private void dropPrefetchedPages(String listId, ListItemType listItemType) {
+        prefetchedPages.remove(listKey(listId, listItemType));
+    }
+
+    private static final class ListState {
+        final ListItemCursor cursor;
+        final int storedCount;
+        final boolean completed;
+
+        ListState(ListItemCursor cursor, int storedCount, boolean completed) {
+            this.cursor = cursor;
+            this.storedCount = storedCount;
+            this.completed = completed;
+        }
+    }
+
+    private static final class PrefetchedPage {
+        final ListItemPageKey key;
+        final Single<Page<ListItem>> page;
+
+        PrefetchedPage(ListItemPageKey key, Single<Page<ListItem>> page) {
+            this.key = key;
+            this.page = page;
+        }
+
+        boolean follows(String listId, ListItemType listItemType, ListItemCursor cursor) {
+            return key.equals(new ListItemPageKey(listId, listItemType, cursor, key.getPageSize()));
+        }
+    }
 }
@@ -1,29 +1,32 @@
 package com.boomylabs.listly.ui.details;
 
 import android.support.annotation.Nullable;
-import android.support.v4.util.Pair;
 
 import com.boomylabs.listly.data.Constants;
 import com.boomylabs.listly.data.ListConfiguration;
 import com.boomylabs.listly.data.eventbus.RxBus;
+import com.boomylabs.listly.data.eventbus.TypedRxBus;
 import com.boomylabs.listly.data.interactor.DetailsInteractor;
+import com.boomylabs.listly.data.interactor.EmojiMutationQueue;
+import com.boomylabs.listly.data.interactor.EmojiToggle;
 import com.boomylabs.listly.data.interactor.ListInteractor;
 import com.boomylabs.listly.data.interactor.ListItemInteractor;
+import com.boomylabs.listly.data.interactor.PageSizePolicy;
 import com.boomylabs.listly.data.interactor.UserInteractor;
 import com.boomylabs.listly.data.model.presentation.DetailsInfoOption;
 import com.boomylabs.listly.data.model.presentation.ListItemSetup;
 import com.boomylabs.listly.data.model.presentation.ListType;
 import com.boomylabs.listly.data.model.test.List;
 import com.boomylabs.listly.data.model.test.ListItem;
+import com.boomylabs.listly.data.rx.RetryPolicy;
+import com.boomylabs.listly.data.rx.SchedulersProvider;
 import com.boomylabs.listly.ui.common.flow.Navigator;
 import com.boomylabs.listly.ui.common.mvi.MviPresenter;
+import com.boomylabs.listly.ui.common.mvi.SubscriptionScope;
 import com.boomylabs.listly.ui.create.item.detailed.CreateItemDetailedScreen;
-import com.boomylabs.listly.ui.utils.CollectionUtils;
 import com.boomylabs.listly.ui.utils.Utils;
 import com.boomylabs.listly.ui.utils.share.SharingUtils;
-import com.google.common.collect.ArrayListMultimap;
 import com.jakewharton.rxrelay2.BehaviorRelay;
-import com.vdurmont.emoji.Emoji;
 
 import java.util.Collections;
 import java.util.concurrent.TimeUnit;
@@ -31,12 +34,8 @@ import java.util.concurrent.TimeUnit;
 import javax.inject.Inject;
 
 import io.reactivex.Completable;
-import io.reactivex.Flowable;
 import io.reactivex.Observable;
-import io.reactivex.Scheduler;
-import io.reactivex.android.schedulers.AndroidSchedulers;
-import io.reactivex.disposables.CompositeDisposable;
-import io.reactivex.schedulers.Schedulers;
+import io.reactivex.functions.Function;
 import io.reactivex.subjects.BehaviorSubject;
 
 import static com.boomylabs.listly.data.Converter.toDomainType;
@@ -45,6 +44,10 @@ import static java.util.Collections.emptyList;
 
 public class DetailsPresenter extends MviPresenter<DetailsView, DetailsViewState> {
 
+    private static final int INITIAL_PAGE_SIZE = 10;
+    private static final int MAX_PAGE_SIZE = 80;
+    private static final int PREFETCH_DISTANCE = 5;
+
     private final DetailsInteractor interactor;
     private final ListInteractor listInteractor;
     private final ListItemInteractor listItemInteractor;
@@ -52,9 +55,12 @@ public class DetailsPresenter extends MviPresenter<DetailsView, DetailsViewState
     private final ListType listType;
     private final ListConfiguration configuration;
     private final UserInteractor userInteractor;
+    private final EmojiMutationQueue emojiMutationQueue;
+    private final PageSizePolicy pageSizePolicy = PageSizePolicy.adaptive(INITIAL_PAGE_SIZE, MAX_PAGE_SIZE);
+    private final SchedulersProvider schedulers;
+    private final RetryPolicy backendRetryPolicy;
 
     private ListItemSetup setup = new ListItemSetup(LIST, "", "", emptyList());
-    private ArrayListMultimap<ListItem, String> pendingEmojis = ArrayListMultimap.create();
     private final BehaviorSubject<ListItemSetup> setupSubject = BehaviorSubject
             .createDefault(new ListItemSetup());
 
@@ -65,12 +71,13 @@ public class DetailsPresenter extends MviPresenter<DetailsView, DetailsViewState
 
     private boolean isFilterButtonEnabled = false;
 
-    CompositeDisposable disposables = new CompositeDisposable();
+    private final SubscriptionScope intentScope = new SubscriptionScope();
 
     @Inject
     public DetailsPresenter(@Nullable List list, DetailsInteractor interactor,
                             ListInteractor listInteractor,
-                            ListItemInteractor listItemInteractor, UserInteractor userInteractor) {
+                            ListItemInteractor listItemInteractor, UserInteractor userInteractor,
+                            SchedulersProvider schedulers) {
         this.listId = list.getId();
         this.listType = list.getListType();
         this.interactor = interactor;
@@ -78,67 +85,86 @@ public class DetailsPresenter extends MviPresenter<DetailsView, DetailsViewState
         this.listItemInteractor = listItemInteractor;
         this.userInteractor = userInteractor;
         this.configuration = new ListConfiguration();
+        this.schedulers = schedulers;
+        this.emojiMutationQueue = new EmojiMutationQueue(interactor, schedulers.computation());
+        this.backendRetryPolicy = new RetryPolicy.Builder()
+                .setInitialDelay(1, TimeUnit.SECONDS)
+                .setMaxDelay(30, TimeUnit.SECONDS)
+                .setMaxAttempts(6)
+                .setScheduler(schedulers.computation())
+                .build();
 
         listRelay.accept(list);
         userInteractor.setCurrentList(list);
     }
 
     private Observable<DetailsViewState> getListItems(ListItemSetup setup) {
-        return interactor.getListItems(listId, toDomainType(setup.getOption()))
-                .map(page ->
+        // pages and unconfirmed emoji toggles both reduce into the rendered update, so a tap
+        // shows up right away instead of after the debounced API call
+        Observable<Function<ListItemsUpdate, ListItemsUpdate>> pageReducers =
+                interactor.getListItems(listId, toDomainType(setup.getOption()))
+                        .map(page -> previous -> ListItemsUpdate.next(previous, page.getItems(), page.isCompleted()));
+        Observable<Function<ListItemsUpdate, ListItemsUpdate>> pendingToggleReducers =
+                emojiMutationQueue.getPendingToggles()
+                        .map(pendingToggles -> previous -> previous.withPendingToggles(pendingToggles));
+
+        return Observable.merge(pageReducers, pendingToggleReducers)
+                .observeOn(schedulers.computation())
+                .scan(ListItemsUpdate.EMPTY, (previous, reducer) -> reducer.apply(previous))
+                .skip(1)
+                .filter(ListItemsUpdate::hasChanges)
+                .map(update ->
                         new DetailsViewState.DetailedState(
                                 listRelay.getValue(), setup,
-                                renumerateItemsInAscendingOrder(page.getItems()),
-                                page.isCompleted()
+                                update.getItems(),
+                                update.isCompleted(),
+                                update
                         )
                 );
     }
 
-    private java.util.List<ListItem> renumerateItemsInAscendingOrder(java.util.List<ListItem> items) {
-        long position = 1;
-        java.util.List<ListItem> copyList = CollectionUtils.copy(items);
-        for (ListItem item : copyList) {
-            item.setPosition(position);
-            position++;
-        }
-        return copyList;
-    }
-
     private Observable<DetailsViewState> refreshListItems(ListItemSetup setup) {
         return Observable.just(new DetailsViewState.LoadingState(setup))
-                .observeOn(Schedulers.newThread())
+                .observeOn(schedulers.network())
                 .cast(DetailsViewState.class)
                 .concatWith(
                         interactor.refreshListItems(
-                                listId, toDomainType(setup.getOption()), setup
+                                listId, toDomainType(setup.getOption()), setup, pageSizePolicy
                         )
-                                .retryWhen(ignored -> Flowable.interval(5, TimeUnit.SECONDS).onBackpressureLatest())
-                                .toObservable()
+                                .<DetailsViewState>toObservable()
+                                .onErrorReturn(DetailsViewState.ErrorState::new)
                 );
     }
 
     private Observable<DetailsViewState> changeListItemType(ListItem listItem) {
         return Observable.fromCallable(DetailsViewState.LoadingDialogState::new)
-                .observeOn(Schedulers.newThread())
+                .observeOn(schedulers.network())
                 .cast(DetailsViewState.class)
                 .concatWith(
                         Completable.concatArray(
                                 listItemInteractor.changeListItemType(listItem)
-                        ).toObservable()
+                        )
+                                .doOnComplete(() -> interactor.invalidateCachedPages(listId))
+                                .toObservable()
                 );
     }
 
     private Observable<DetailsViewState> deleteListItem(ListItem listItem) {
         return Observable.fromCallable(DetailsViewState.LoadingDialogState::new)
-                .observeOn(Schedulers.newThread())
+                .observeOn(schedulers.network())
                 .cast(DetailsViewState.class)
-                .concatWith(listItemInteractor.deleteListItem(listItem).toObservable());
+                .concatWith(listItemInteractor.deleteListItem(listItem)
+                        .doOnComplete(() -> interactor.invalidateCachedPages(listId))
+                        .toObservable());
     }
 
     @Override
     protected void bindIntents() {
-        RxBus.subscribe(RxBus.SUBJECT_LIST_ITEM_FILTER_RESULT_DIALOG, this,
-                (setup) -> setupSubject.onNext((ListItemSetup) setup));
+        intentScope.add(
+                TypedRxBus.getInstance().subscribe(RxBus.SUBJECT_LIST_ITEM_FILTER_RESULT_DIALOG, ListItemSetup.class,
+                        new TypedRxBus.Options.Builder().setLatestOnly().build(),
+                        setupSubject::onNext)
+        );
 
         RxBus.subscribe(RxBus.SUBJECT_DISABLE_FILTER_BUTTON, this, o -> {
             isFilterButtonEnabled = false;
@@ -167,22 +193,38 @@ public class DetailsPresenter extends MviPresenter<DetailsView, DetailsViewState
                                                     .concatWith(getListItems(listItemSetup))
                                     );
                         })
-                        .observeOn(AndroidSchedulers.mainThread());
+                        .observeOn(schedulers.ui());
+
+        // one load at a time, requests arriving while a page is loading are ignored
+        intentScope.add(
+                intent(DetailsView::loadMore)
+                        .take(1)
+                        .flatMapCompletable(ignored ->
+                                interactor.loadMoreListItems(listId, toDomainType(setup.getOption()), setup, pageSizePolicy)
+                        )
+                        .repeat()
+                        .subscribe()
+        );
 
-        intent(DetailsView::loadMore)
-                .take(1)
-                .flatMapCompletable(ignored ->
-                        interactor.loadMoreListItems(listId, toDomainType(setup.getOption()), setup)
-                )
-                .repeat()
-                .subscribe();
+        intentScope.add(
+                intent(DetailsView::lastVisibleItemPositionIntent)
+                        .distinctUntilChanged()
+                        .flatMapCompletable(position ->
+                                interactor.prefetchNextPage(listId, toDomainType(setup.getOption()), setup, position,
+                                        PREFETCH_DISTANCE, pageSizePolicy)
+                        )
+                        .subscribe()
+        );
 
-        intent(DetailsView::forceRefresh)
-                .flatMapSingle(ignored -> listInteractor.getListById(listId, listType))
-                .retryWhen(throwableObserver ->
-                        Observable.interval(5, TimeUnit.MILLISECONDS)
-                )
-                .subscribe(listRelay);
+        intentScope.add(
+                intent(DetailsView::forceRefresh)
+                        .flatMapMaybe(ignored -> listInteractor.getListById(listId, listType)
+                                .compose(backendRetryPolicy.<List>forSingle())
+                                .toMaybe()
+                                .onErrorComplete()
+                        )
+                        .subscribe(listRelay)
+        );
 
         Observable<DetailsViewState> detailsViewStateObservable = intent(DetailsView::initIntent)
                 .flatMap(ignored -> listRelay.map(list -> new DetailsViewState.DefaultState(list, setup)))
@@ -198,14 +240,14 @@ public class DetailsPresenter extends MviPresenter<DetailsView, DetailsViewState
                 .onErrorReturn(DetailsViewState.ErrorState::new)
                 .repeat()
                 .mergeWith(viewStateForwarderSubject)
-                .observeOn(AndroidSchedulers.mainThread());
+                .observeOn(schedulers.ui());
 
         subscribeViewState(detailsViewStateObservable, DetailsView::render);
 
-        disposables.add(
+        intentScope.add(
                 intent(DetailsView::openFilterTagsIntent)
                         .flatMap(ignored -> listRelay.take(1))
-                        .observeOn(AndroidSchedulers.mainThread())
+                        .observeOn(schedulers.ui())
                         .subscribe(list -> {
                             if (!isFilterButtonEnabled) {
                                 isFilterButtonEnabled = true;
@@ -220,15 +262,15 @@ public class DetailsPresenter extends MviPresenter<DetailsView, DetailsViewState
         setupSideEffects();
         setupListItemActions();
 
-        RxBus.subscribe(RxBus.SUBJECT_SHARE, this, data -> {
-            if (data instanceof ListItem) {
-                Navigator.getInstance().share(SharingUtils.listItemToContentString((ListItem) data));
-            }
-        });
+        intentScope.add(
+                TypedRxBus.getInstance().subscribe(RxBus.SUBJECT_SHARE, ListItem.class, listItem ->
+                        Navigator.getInstance().share(SharingUtils.listItemToContentString(listItem))
+                )
+        );
     }
 
     private void setupSideEffects() {
-        disposables.add(
+        intentScope.add(
                 intent(DetailsView::reportListIntent)
                         .flatMapCompletable(complaint ->
                                 listRelay.take(1).flatMapCompletable(list -> listInteractor.reportList(list, complaint))
@@ -237,20 +279,20 @@ public class DetailsPresenter extends MviPresenter<DetailsView, DetailsViewState
                         .subscribe()
         );
 
-        disposables.add(
+        intentScope.add(
                 intent(DetailsView::editListIntent)
                         .flatMap(ignored -> listRelay.take(1))
                         .doOnNext(list -> Navigator.getInstance().goToEditOwnedList(list.getId(), list.getListType()))
                         .subscribe()
         );
 
-        disposables.add(
+        intentScope.add(
                 intent(DetailsView::closeIntent)
                         .doOnNext(ignored -> Navigator.getInstance().goBack())
                         .subscribe()
         );
 
-        disposables.add(
+        intentScope.add(
                 intent(DetailsView::shareListIntent)
                         .flatMap(ignored -> listRelay.take(1))
                         .doOnNext(list ->
@@ -260,7 +302,7 @@ public class DetailsPresenter extends MviPresenter<DetailsView, DetailsViewState
                         .subscribe()
         );
 
-        disposables.add(
+        intentScope.add(
                 intent(DetailsView::startCommentIntent)
                         .doOnNext(listItem -> Navigator.getInstance().goToListItemComments(listItem))
                         .subscribe()
@@ -268,7 +310,7 @@ public class DetailsPresenter extends MviPresenter<DetailsView, DetailsViewState
     }
 
     private void setupListItemActions() {
-        disposables.add(
+        intentScope.add(
                 intent(DetailsView::editListItemIntent)
                         .flatMapCompletable(listItem ->
                                 Completable.concatArray(
@@ -278,44 +320,38 @@ public class DetailsPresenter extends MviPresenter<DetailsView, DetailsViewState
                                             }
                                         })
                                                 .onErrorComplete()
-                                                .subscribeOn(Schedulers.io()),
+                                                .subscribeOn(schedulers.database()),
                                         Completable.fromAction(() -> {
                                             CreateItemDetailedScreen.Builder builder = new CreateItemDetailedScreen.Builder()
                                                     .setMode(CreateItemDetailedScreen.Mode.EDIT)
                                                     .setListItem(listItem);
                                             Navigator.getInstance().goToCreateListItemDetailed(builder);
-                                        }).subscribeOn(AndroidSchedulers.mainThread()))
+                                        }).subscribeOn(schedulers.ui()))
                         )
                         .subscribe()
         );
     }
 
     private Observable<DetailsViewState> bindEmojiObservables() {
-        final Scheduler emojiScheduler = Schedulers.newThread();
-
-        Observable<Pair<ListItem, String>> upvoteObservable = intent(DetailsView::upvoteListItemToggleIntent)
-                .observeOn(emojiScheduler)
-                .doOnNext(listItem -> pendingEmojis.put(listItem, Emoji.THUMBS_UP))
-                .flatMapSingle(listItem -> interactor.toogleUpvote(listItem)
-                        .map(updatedItem -> new Pair<>(updatedItem, Emoji.THUMBS_UP))
-                );
+        Observable<EmojiToggle> toggleObservable = Observable.mergeArray(
+                intent(DetailsView::upvoteListItemToggleIntent).map(EmojiToggle::upvote),
+                intent(DetailsView::emojiListItemToggleIntent).map(pair -> EmojiToggle.emoji(pair.first, pair.second))
+        );
 
-        Observable<Pair<ListItem, String>> emojiToggleObservable = intent(DetailsView::emojiListItemToggleIntent)
-                .observeOn(emojiScheduler)
-                .doOnNext(pair -> pendingEmojis.put(pair.first, pair.second))
-                .flatMapSingle(pair -> interactor
-                        .toggleEmoji(pair.first, pair.second)
-                        .map(updatedItem -> new Pair<>(updatedItem, pair.second))
-                );
+        return emojiMutationQueue.process(toggleObservable)
+                .filter(result -> !result.isSuccessful())
+                .map(result -> new DetailsViewState.ErrorState(result.getError()));
+    }
 
-        return Observable.<Object>mergeArray(upvoteObservable, emojiToggleObservable)
-                .ignoreElements()
-                .toObservable();
+    /** Number of intent subscriptions still running, 0 once the intents are unbound. */
+    int getLiveSubscriptionCount() {
+        return intentScope.getLiveCount();
     }
 
     @Override
     protected void unbindIntents() {
         RxBus.unsubscribe(this);
+        intentScope.clear();
         super.unbindIntents();
     }
 }
@@ -0,0 +1,105 @@
+package com.boomylabs.listly.data.interactor;
+
+import com.boomylabs.listly.data.model.test.ListItem;
+import com.jakewharton.rxrelay2.BehaviorRelay;
+import com.jakewharton.rxrelay2.Relay;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Observable;
+import io.reactivex.Scheduler;
+
+/**
+ * Coalesces emoji and upvote toggles before they reach the API.
+ * <p>
+ * Toggles of the same (item, emoji) pair are debounced; a burst with an even number of toggles
+ * cancels out and is never sent. The remaining toggles are sent in batches and their results are
+ * written to the repository in one pass. Until a toggle is confirmed it is reported as pending
+ * through {@link #getPendingToggles()}, which is the optimistic state the view renders right
+ * away. A failed toggle is rolled back by dropping it from the pending state and emitting a
+ * failed {@link EmojiMutationResult}.
+ */
+public class EmojiMutationQueue {
+
+    public static final long DEFAULT_DEBOUNCE_MILLIS = 400;
+    public static final int DEFAULT_MAX_BATCH_SIZE = 16;
+
+    private final DetailsInteractor interactor;
+    private final Scheduler scheduler;
+    private final long debounceMillis;
+    private final int maxBatchSize;
+
+    private final Map<String, EmojiToggle> pendingToggles = new ConcurrentHashMap<>();
+    private final Relay<Map<String, EmojiToggle>> pendingTogglesRelay =
+            BehaviorRelay.createDefault(Collections.<String, EmojiToggle>emptyMap()).toSerialized();
+
+    public EmojiMutationQueue(DetailsInteractor interactor, Scheduler scheduler) {
+        this(interactor, scheduler, DEFAULT_DEBOUNCE_MILLIS, DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    public EmojiMutationQueue(DetailsInteractor interactor, Scheduler scheduler,
+                              long debounceMillis, int maxBatchSize) {
+        this.interactor = interactor;
+        this.scheduler = scheduler;
+        this.debounceMillis = debounceMillis;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public Observable<EmojiMutationResult> process(Observable<EmojiToggle> toggles) {
+        return toggles
+                .observeOn(scheduler)
+                .doOnNext(this::togglePending)
+                .groupBy(EmojiToggle::getKey)
+                // a group lives as long as the stream, so a toggle arriving while its burst is being
+                // closed on another worker lands in the next burst instead of being dropped with the group
+                .flatMap(group -> group.publish(shared ->
+                        shared.buffer(shared.debounce(debounceMillis, TimeUnit.MILLISECONDS, scheduler))
+                ))
+                .filter(burst -> burst.size() % 2 == 1)
+                .map(burst -> burst.get(0))
+                .buffer(debounceMillis, TimeUnit.MILLISECONDS, scheduler, maxBatchSize)
+                .filter(batch -> !batch.isEmpty())
+                .concatMap(batch -> interactor.applyEmojiToggles(batch)
+                        .toObservable()
+                        .flatMapIterable(results -> results)
+                )
+                .doOnNext(result -> {
+                    pendingToggles.remove(result.getToggle().getKey());
+                    publishPendingToggles();
+                });
+    }
+
+    /** Snapshots of the unconfirmed toggles by {@link EmojiToggle#getKey()}, emitted on every change. */
+    public Observable<Map<String, EmojiToggle>> getPendingToggles() {
+        return pendingTogglesRelay;
+    }
+
+    /** {@code true} if the emoji toggle on this item has not been confirmed by the API yet. */
+    public boolean isPending(ListItem listItem, String emojiAlias) {
+        return pendingToggles.containsKey(EmojiToggle.emoji(listItem, emojiAlias).getKey());
+    }
+
+    /** {@code true} if the upvote toggle on this item has not been confirmed by the API yet. */
+    public boolean isUpvotePending(ListItem listItem) {
+        return pendingToggles.containsKey(EmojiToggle.upvote(listItem).getKey());
+    }
+
+    public int getPendingCount() {
+        return pendingToggles.size();
+    }
+
+    private void togglePending(EmojiToggle toggle) {
+        if (pendingToggles.remove(toggle.getKey()) == null) {
+            pendingToggles.put(toggle.getKey(), toggle);
+        }
+        publishPendingToggles();
+    }
+
+    private void publishPendingToggles() {
+        pendingTogglesRelay.accept(Collections.unmodifiableMap(new HashMap<>(pendingToggles)));
+    }
+}
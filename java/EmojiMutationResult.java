@@ -0,0 +1,50 @@
+package com.boomylabs.listly.data.interactor;
+
+import android.support.annotation.Nullable;
+
+import com.boomylabs.listly.data.model.test.ListItem;
+
+/**
+ * Outcome of sending an {@link EmojiToggle}: either the updated item returned by the API
+ * or the error that made the toggle fail.
+ */
+public final class EmojiMutationResult {
+
+    private final EmojiToggle toggle;
+    @Nullable
+    private final ListItem updatedItem;
+    @Nullable
+    private final Throwable error;
+
+    private EmojiMutationResult(EmojiToggle toggle, @Nullable ListItem updatedItem, @Nullable Throwable error) {
+        this.toggle = toggle;
+        this.updatedItem = updatedItem;
+        this.error = error;
+    }
+
+    static EmojiMutationResult success(EmojiToggle toggle, ListItem updatedItem) {
+        return new EmojiMutationResult(toggle, updatedItem, null);
+    }
+
+    static EmojiMutationResult failure(EmojiToggle toggle, Throwable error) {
+        return new EmojiMutationResult(toggle, null, error);
+    }
+
+    public EmojiToggle getToggle() {
+        return toggle;
+    }
+
+    @Nullable
+    public ListItem getUpdatedItem() {
+        return updatedItem;
+    }
+
+    @Nullable
+    public Throwable getError() {
+        return error;
+    }
+
+    public boolean isSuccessful() {
+        return error == null;
+    }
+}
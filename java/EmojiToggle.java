@@ -0,0 +1,45 @@
+package com.boomylabs.listly.data.interactor;
+
+import com.boomylabs.listly.data.model.test.ListItem;
+import com.vdurmont.emoji.Emoji;
+
+/**
+ * A single user toggle of an emoji (or the upvote) on a list item.
+ */
+public final class EmojiToggle {
+
+    private final ListItem listItem;
+    private final String emojiAlias;
+    private final boolean upvote;
+
+    private EmojiToggle(ListItem listItem, String emojiAlias, boolean upvote) {
+        this.listItem = listItem;
+        this.emojiAlias = emojiAlias;
+        this.upvote = upvote;
+    }
+
+    public static EmojiToggle upvote(ListItem listItem) {
+        return new EmojiToggle(listItem, Emoji.THUMBS_UP, true);
+    }
+
+    public static EmojiToggle emoji(ListItem listItem, String emojiAlias) {
+        return new EmojiToggle(listItem, emojiAlias, false);
+    }
+
+    public ListItem getListItem() {
+        return listItem;
+    }
+
+    public String getEmojiAlias() {
+        return emojiAlias;
+    }
+
+    public boolean isUpvote() {
+        return upvote;
+    }
+
+    /** Toggles with the same key affect the same (item, emoji) pair and cancel each other out in pairs. */
+    public String getKey() {
+        return listItem.getId() + (upvote ? ":upvote:" : ":emoji:") + emojiAlias;
+    }
+}
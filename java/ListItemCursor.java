@@ -0,0 +1,100 @@
+package com.boomylabs.listly.data.interactor;
+
+import android.support.annotation.Nullable;
+
+import com.boomylabs.listly.data.model.presentation.ListItemSetup;
+import com.boomylabs.listly.data.model.test.ListItem;
+import com.google.common.base.Objects;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Keyset cursor of a paginated list on the server: the id of the last item the server returned
+ * for one setup (search query, sort option, filters). The next page is requested as the items
+ * after that id, so items inserted or removed on the server between pages neither shift nor skip
+ * the following pages. The cursor is stored next to the list in the repository.
+ */
+public final class ListItemCursor {
+
+    private final String searchQuery;
+    private final String sortOption;
+    private final List<String> filters;
+    @Nullable
+    private final String lastItemId;
+    private final int loadedCount;
+
+    public ListItemCursor(String searchQuery, String sortOption, List<String> filters,
+                          @Nullable String lastItemId, int loadedCount) {
+        this.searchQuery = searchQuery;
+        this.sortOption = sortOption;
+        this.filters = filters == null
+                ? Collections.emptyList()
+                : Collections.unmodifiableList(new ArrayList<>(filters));
+        this.lastItemId = lastItemId;
+        this.loadedCount = loadedCount;
+    }
+
+    /** Cursor before the first page of the given setup. */
+    public static ListItemCursor start(ListItemSetup setup) {
+        return new ListItemCursor(setup.getSearchQuery(), setup.getSortOption(), setup.getFilters(), null, 0);
+    }
+
+    public String getSearchQuery() {
+        return searchQuery;
+    }
+
+    public String getSortOption() {
+        return sortOption;
+    }
+
+    public List<String> getFilters() {
+        return filters;
+    }
+
+    /** Id of the last item returned so far, {@code null} before the first page. */
+    @Nullable
+    public String getLastItemId() {
+        return lastItemId;
+    }
+
+    /** Number of items the server returned so far, used to size the next page. */
+    public int getLoadedCount() {
+        return loadedCount;
+    }
+
+    /** Whether the cursor was advanced by pages requested with the given setup. */
+    public boolean isFor(ListItemSetup setup) {
+        List<String> setupFilters = setup.getFilters() == null ? Collections.emptyList() : setup.getFilters();
+        return Objects.equal(searchQuery, setup.getSearchQuery())
+                && Objects.equal(sortOption, setup.getSortOption())
+                && filters.equals(setupFilters);
+    }
+
+    /** Cursor after the given page was returned from this cursor. */
+    public ListItemCursor advance(List<ListItem> pageItems) {
+        if (pageItems.isEmpty()) {
+            return this;
+        }
+        return new ListItemCursor(searchQuery, sortOption, filters,
+                pageItems.get(pageItems.size() - 1).getId(), loadedCount + pageItems.size());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ListItemCursor that = (ListItemCursor) o;
+        return loadedCount == that.loadedCount
+                && Objects.equal(searchQuery, that.searchQuery)
+                && Objects.equal(sortOption, that.sortOption)
+                && filters.equals(that.filters)
+                && Objects.equal(lastItemId, that.lastItemId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(searchQuery, sortOption, filters, lastItemId, loadedCount);
+    }
+}
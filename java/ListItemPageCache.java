@@ -0,0 +1,134 @@
+package com.boomylabs.listly.data.interactor;
+
+import com.boomylabs.listly.data.model.test.ListItem;
+import com.boomylabs.listly.data.model.test.ListItemType;
+import com.boomylabs.listly.ui.common.pagination.Page;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded LRU cache of remote list item pages. Entries older than the TTL are dropped on read,
+ * entries beyond the size limit are evicted in least-recently-used order.
+ */
+public class ListItemPageCache {
+
+    public static final int DEFAULT_MAX_PAGES = 32;
+    public static final long DEFAULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private final int maxPages;
+    private final long ttlMillis;
+    private final LinkedHashMap<ListItemPageKey, Entry> entries;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    public ListItemPageCache() {
+        this(DEFAULT_MAX_PAGES, DEFAULT_TTL_MILLIS);
+    }
+
+    public ListItemPageCache(int maxPages, long ttlMillis) {
+        if (maxPages <= 0) {
+            throw new IllegalArgumentException("maxPages must be positive!");
+        }
+        this.maxPages = maxPages;
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<ListItemPageKey, Entry>(maxPages, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ListItemPageKey, Entry> eldest) {
+                if (size() > ListItemPageCache.this.maxPages) {
+                    evictionCount.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /** Returns the cached page, or {@code null} if it is absent or older than the TTL. */
+    public synchronized Page<ListItem> get(ListItemPageKey key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        if (isExpired(entry)) {
+            entries.remove(key);
+            evictionCount.incrementAndGet();
+            missCount.incrementAndGet();
+            return null;
+        }
+        hitCount.incrementAndGet();
+        return entry.page;
+    }
+
+    public synchronized void put(ListItemPageKey key, Page<ListItem> page) {
+        entries.put(key, new Entry(page, now()));
+    }
+
+    /** Drops every cached page of the given list and item type. */
+    public synchronized void invalidate(String listId, ListItemType listItemType) {
+        Iterator<ListItemPageKey> iterator = entries.keySet().iterator();
+        while (iterator.hasNext()) {
+            ListItemPageKey key = iterator.next();
+            if (key.getListItemType() == listItemType && key.getListId().equals(listId)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /** Drops every cached page that contains the item, e.g. after it was changed locally. */
+    public synchronized void invalidateItem(String itemId) {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            for (ListItem listItem : iterator.next().page.getItems()) {
+                if (listItem.getId().equals(itemId)) {
+                    iterator.remove();
+                    break;
+                }
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    private boolean isExpired(Entry entry) {
+        return now() - entry.createdAtMillis > ttlMillis;
+    }
+
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    private static final class Entry {
+        final Page<ListItem> page;
+        final long createdAtMillis;
+
+        Entry(Page<ListItem> page, long createdAtMillis) {
+            this.page = page;
+            this.createdAtMillis = createdAtMillis;
+        }
+    }
+}
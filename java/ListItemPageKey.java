@@ -0,0 +1,121 @@
+package com.boomylabs.listly.data.interactor;
+
+import android.support.annotation.Nullable;
+
+import com.boomylabs.listly.data.model.test.ListItemType;
+import com.google.common.base.Objects;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Identifies a single remote page of list items: list, item type, setup (search query,
+ * sort option, filters), position and page size. A page is positioned either by its number or,
+ * for keyset pages, by the id of the item it follows; keyset keys have page number 0.
+ */
+public final class ListItemPageKey {
+
+    private final String listId;
+    private final ListItemType listItemType;
+    private final String searchQuery;
+    private final String sortOption;
+    private final List<String> filters;
+    private final int page;
+    @Nullable
+    private final String afterItemId;
+    private final int pageSize;
+
+    public ListItemPageKey(String listId, ListItemType listItemType, String searchQuery,
+                           String sortOption, List<String> filters, int page, int pageSize) {
+        this(listId, listItemType, searchQuery, sortOption, filters, page, null, pageSize);
+    }
+
+    /** Key of the keyset page that follows the cursor. */
+    public ListItemPageKey(String listId, ListItemType listItemType, ListItemCursor cursor, int pageSize) {
+        this(listId, listItemType, cursor.getSearchQuery(), cursor.getSortOption(), cursor.getFilters(),
+                0, cursor.getLastItemId(), pageSize);
+    }
+
+    private ListItemPageKey(String listId, ListItemType listItemType, String searchQuery, String sortOption,
+                            List<String> filters, int page, @Nullable String afterItemId, int pageSize) {
+        this.listId = listId;
+        this.listItemType = listItemType;
+        this.searchQuery = searchQuery;
+        this.sortOption = sortOption;
+        this.filters = filters == null
+                ? Collections.emptyList()
+                : Collections.unmodifiableList(new ArrayList<>(filters));
+        this.page = page;
+        this.afterItemId = afterItemId;
+        this.pageSize = pageSize;
+    }
+
+    public String getListId() {
+        return listId;
+    }
+
+    public ListItemType getListItemType() {
+        return listItemType;
+    }
+
+    public String getSearchQuery() {
+        return searchQuery;
+    }
+
+    public String getSortOption() {
+        return sortOption;
+    }
+
+    public List<String> getFilters() {
+        return filters;
+    }
+
+    public int getPage() {
+        return page;
+    }
+
+    /** Id of the item a keyset page follows, {@code null} for the first page and numbered pages. */
+    @Nullable
+    public String getAfterItemId() {
+        return afterItemId;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ListItemPageKey that = (ListItemPageKey) o;
+        return page == that.page
+                && pageSize == that.pageSize
+                && listItemType == that.listItemType
+                && Objects.equal(listId, that.listId)
+                && Objects.equal(searchQuery, that.searchQuery)
+                && Objects.equal(sortOption, that.sortOption)
+                && filters.equals(that.filters)
+                && Objects.equal(afterItemId, that.afterItemId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(listId, listItemType, searchQuery, sortOption, filters, page, afterItemId, pageSize);
+    }
+
+    @Override
+    public String toString() {
+        return "ListItemPageKey{" +
+                "listId='" + listId + '\'' +
+                ", listItemType=" + listItemType +
+                ", searchQuery='" + searchQuery + '\'' +
+                ", sortOption='" + sortOption + '\'' +
+                ", filters=" + filters +
+                ", page=" + page +
+                ", afterItemId='" + afterItemId + '\'' +
+                ", pageSize=" + pageSize +
+                '}';
+    }
+}
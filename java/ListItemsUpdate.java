@@ -0,0 +1,219 @@
+package com.boomylabs.listly.ui.details;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
+import android.support.v7.widget.RecyclerView;
+
+import com.boomylabs.listly.data.interactor.EmojiToggle;
+import com.boomylabs.listly.data.model.test.ListItem;
+import com.boomylabs.listly.ui.utils.CollectionUtils;
+import com.google.common.base.Objects;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Snapshot of the list items shown on the details screen together with the structural diff
+ * (inserted, removed, moved and changed ranges) against the previous snapshot.
+ * Item positions are derived from the index on demand instead of being stored in every item.
+ * It also carries the emoji and upvote toggles that are not confirmed yet, so the rows render
+ * them optimistically; a change of those only marks the affected rows as changed.
+ * <p>
+ * Every update has a version and the diff only applies to an adapter showing its base version.
+ * A view that binds a replayed state to a new adapter, or missed an update, gets a full rebind.
+ */
+public final class ListItemsUpdate {
+
+    /** Version of an adapter that has not shown any update yet. */
+    public static final long NO_VERSION = -1;
+
+    public static final ListItemsUpdate EMPTY =
+            new ListItemsUpdate(Collections.emptyList(), false, null, Collections.emptyMap(), null, NO_VERSION);
+
+    private static final AtomicLong VERSIONS = new AtomicLong();
+
+    private final long version;
+    private final long baseVersion;
+    private final List<ListItem> items;
+    private final boolean completed;
+    @Nullable
+    private final DiffUtil.DiffResult diffResult;
+    private final Map<String, EmojiToggle> pendingToggles;
+    // set instead of diffResult when only the pending toggles changed
+    @Nullable
+    private final List<Integer> changedPositions;
+
+    private ListItemsUpdate(List<ListItem> items, boolean completed, @Nullable DiffUtil.DiffResult diffResult,
+                            Map<String, EmojiToggle> pendingToggles, @Nullable List<Integer> changedPositions,
+                            long baseVersion) {
+        this.version = VERSIONS.incrementAndGet();
+        this.baseVersion = baseVersion;
+        this.items = Collections.unmodifiableList(items);
+        this.completed = completed;
+        this.diffResult = diffResult;
+        this.pendingToggles = pendingToggles;
+        this.changedPositions = changedPositions;
+    }
+
+    /**
+     * Computes the diff from {@code previous} to {@code items}. Expensive for large lists,
+     * so it has to be called off the main thread. The items are copied, so the repository may
+     * reuse or change its list and items without affecting the next diff.
+     */
+    public static ListItemsUpdate next(ListItemsUpdate previous, List<ListItem> items, boolean completed) {
+        List<ListItem> snapshot = CollectionUtils.copy(items);
+        if (previous.items.isEmpty()) {
+            return new ListItemsUpdate(snapshot, completed, null, previous.pendingToggles, null, NO_VERSION);
+        }
+        DiffUtil.DiffResult diffResult = DiffUtil.calculateDiff(new Callback(previous.items, snapshot), true);
+        return new ListItemsUpdate(snapshot, completed, diffResult, previous.pendingToggles, null, previous.version);
+    }
+
+    /** Same items with the given unconfirmed toggles, marking the rows whose pending state changed. */
+    public ListItemsUpdate withPendingToggles(Map<String, EmojiToggle> pendingToggles) {
+        Set<String> affectedItemIds = new HashSet<>();
+        for (Map.Entry<String, EmojiToggle> entry : pendingToggles.entrySet()) {
+            if (!this.pendingToggles.containsKey(entry.getKey())) {
+                affectedItemIds.add(entry.getValue().getListItem().getId());
+            }
+        }
+        for (Map.Entry<String, EmojiToggle> entry : this.pendingToggles.entrySet()) {
+            if (!pendingToggles.containsKey(entry.getKey())) {
+                affectedItemIds.add(entry.getValue().getListItem().getId());
+            }
+        }
+        List<Integer> changedPositions = new ArrayList<>(affectedItemIds.size());
+        for (int i = 0; i < items.size(); i++) {
+            if (affectedItemIds.contains(items.get(i).getId())) {
+                changedPositions.add(i);
+            }
+        }
+        return new ListItemsUpdate(items, completed, null, pendingToggles, changedPositions, version);
+    }
+
+    /** Version the adapter is at once this update was dispatched to it. */
+    public long getVersion() {
+        return version;
+    }
+
+    /** Version the diff of this update applies to, {@link #NO_VERSION} for a full update. */
+    public long getBaseVersion() {
+        return baseVersion;
+    }
+
+    public List<ListItem> getItems() {
+        return items;
+    }
+
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    /** One-based position of the item at {@code index}, as shown to the user. */
+    public long getPosition(int index) {
+        return index + 1;
+    }
+
+    /** {@code true} if the upvote toggle on this item is shown but not confirmed by the API yet. */
+    public boolean isUpvotePending(ListItem listItem) {
+        return pendingToggles.containsKey(EmojiToggle.upvote(listItem).getKey());
+    }
+
+    /** {@code true} if the emoji toggle on this item is shown but not confirmed by the API yet. */
+    public boolean isEmojiPending(ListItem listItem, String emojiAlias) {
+        return pendingToggles.containsKey(EmojiToggle.emoji(listItem, emojiAlias).getKey());
+    }
+
+    /** {@code false} if no shown row changed, e.g. pending toggles of items that are not loaded yet. */
+    public boolean hasChanges() {
+        return changedPositions == null || !changedPositions.isEmpty();
+    }
+
+    /** {@code true} if there is no previous snapshot to diff against and the whole list has to be bound. */
+    public boolean isFullUpdate() {
+        return diffResult == null && changedPositions == null;
+    }
+
+    /**
+     * {@code true} if the diff can be dispatched to a view showing {@code shownVersion}: it is a
+     * full update, or the view shows exactly the snapshot the diff was computed against.
+     */
+    public boolean appliesTo(long shownVersion) {
+        return isFullUpdate() || shownVersion == baseVersion;
+    }
+
+    /**
+     * Dispatches the diff to an adapter showing {@code adapterVersion}, or rebinds the whole list
+     * if the adapter is not at the base version of the diff. The adapter is at {@link #getVersion()}
+     * afterwards.
+     */
+    public void dispatchUpdatesTo(@NonNull RecyclerView.Adapter adapter, long adapterVersion) {
+        if (!appliesTo(adapterVersion)) {
+            adapter.notifyDataSetChanged();
+        } else if (changedPositions != null) {
+            for (int position : changedPositions) {
+                adapter.notifyItemChanged(position);
+            }
+        } else if (diffResult == null) {
+            adapter.notifyDataSetChanged();
+        } else {
+            diffResult.dispatchUpdatesTo(adapter);
+        }
+    }
+
+    /**
+     * Dispatches changed ranges only, to a callback showing {@code shownVersion}. Returns
+     * {@code false} without dispatching anything for a full update or if the callback is not at
+     * the base version of the diff, in which case the caller has to rebind the whole list.
+     */
+    public boolean dispatchUpdatesTo(@NonNull ListUpdateCallback callback, long shownVersion) {
+        if (isFullUpdate() || shownVersion != baseVersion) {
+            return false;
+        }
+        if (changedPositions != null) {
+            for (int position : changedPositions) {
+                callback.onChanged(position, 1, null);
+            }
+        } else {
+            diffResult.dispatchUpdatesTo(callback);
+        }
+        return true;
+    }
+
+    private static final class Callback extends DiffUtil.Callback {
+        private final List<ListItem> oldItems;
+        private final List<ListItem> newItems;
+
+        Callback(List<ListItem> oldItems, List<ListItem> newItems) {
+            this.oldItems = oldItems;
+            this.newItems = newItems;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return oldItems.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return newItems.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return Objects.equal(oldItems.get(oldItemPosition).getId(), newItems.get(newItemPosition).getId());
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return oldItems.get(oldItemPosition).equals(newItems.get(newItemPosition));
+        }
+    }
+}
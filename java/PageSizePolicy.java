@@ -0,0 +1,74 @@
+package com.boomylabs.listly.data.interactor;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides how many list items to request per page.
+ * <p>
+ * A fixed policy always uses the same size. An adaptive policy starts with the initial size,
+ * so the first page is as fast as before, and doubles the size up to a cap whenever the user
+ * asks for the next page sooner than it takes to load one. Follow-up pages are addressed by
+ * the last loaded item, so their size does not depend on how many items were loaded before.
+ */
+public class PageSizePolicy {
+
+    /** The user is "scrolling fast" if the next page is requested within this many load latencies. */
+    private static final int FAST_SCROLL_LATENCY_FACTOR = 4;
+
+    private final int initialPageSize;
+    private final int maxPageSize;
+    private final boolean adaptive;
+
+    private int desiredPageSize;
+    private long averageLatencyMillis = -1;
+    private long lastLoadMoreRequestMillis = -1;
+
+    private PageSizePolicy(int initialPageSize, int maxPageSize, boolean adaptive) {
+        if (initialPageSize <= 0 || maxPageSize < initialPageSize) {
+            throw new IllegalArgumentException("Page size must be positive and maxPageSize >= initialPageSize!");
+        }
+        this.initialPageSize = initialPageSize;
+        this.maxPageSize = maxPageSize;
+        this.adaptive = adaptive;
+        this.desiredPageSize = initialPageSize;
+    }
+
+    public static PageSizePolicy fixed(int pageSize) {
+        return new PageSizePolicy(pageSize, pageSize, false);
+    }
+
+    public static PageSizePolicy adaptive(int initialPageSize, int maxPageSize) {
+        return new PageSizePolicy(initialPageSize, maxPageSize, true);
+    }
+
+    public int getInitialPageSize() {
+        return initialPageSize;
+    }
+
+    /** Size of the page that follows {@code loadedItemsCount} already loaded items. */
+    public synchronized int nextPageSize(int loadedItemsCount) {
+        if (!adaptive || loadedItemsCount == 0) {
+            return initialPageSize;
+        }
+        return desiredPageSize;
+    }
+
+    public synchronized void onLoadMoreRequested() {
+        long now = now();
+        if (adaptive && lastLoadMoreRequestMillis >= 0 && averageLatencyMillis >= 0
+                && now - lastLoadMoreRequestMillis < averageLatencyMillis * FAST_SCROLL_LATENCY_FACTOR) {
+            desiredPageSize = Math.min(desiredPageSize * 2, maxPageSize);
+        }
+        lastLoadMoreRequestMillis = now;
+    }
+
+    public synchronized void onPageLoaded(long latencyMillis) {
+        averageLatencyMillis = averageLatencyMillis < 0
+                ? latencyMillis
+                : (averageLatencyMillis * 3 + latencyMillis) / 4;
+    }
+
+    static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+}
@@ -0,0 +1,239 @@
+package com.boomylabs.listly.data.rx;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.reactivex.Completable;
+import io.reactivex.CompletableTransformer;
+import io.reactivex.Flowable;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.SingleTransformer;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * Retry policy for Rx pipelines talking to the backend: capped exponential backoff with jitter,
+ * a maximum number of attempts and a circuit breaker shared by every pipeline using the policy.
+ * <p>
+ * After {@code failureThreshold} consecutive failures the circuit opens and subscriptions fail
+ * immediately with {@link CircuitOpenException} for {@code openDuration}. After that the circuit
+ * is half-open: a single probe call is let through while all others are still rejected; its
+ * success closes the circuit, its failure opens it again.
+ */
+public class RetryPolicy {
+
+    private static final long CLOSED = -1;
+
+    private static final int PASS = 0;
+    private static final int PROBE = 1;
+    private static final int REJECT = 2;
+
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private final int maxAttempts;
+    private final double jitter;
+    private final int failureThreshold;
+    private final long openDurationMillis;
+    private final Scheduler scheduler;
+    private final Random random = new Random();
+
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile long openedAtMillis = CLOSED;
+    private final AtomicBoolean probeInFlight = new AtomicBoolean();
+
+    private final AtomicLong retryCount = new AtomicLong();
+    private final AtomicLong circuitOpenCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    private RetryPolicy(Builder builder) {
+        this.initialDelayMillis = builder.initialDelayMillis;
+        this.maxDelayMillis = builder.maxDelayMillis;
+        this.maxAttempts = builder.maxAttempts;
+        this.jitter = builder.jitter;
+        this.failureThreshold = builder.failureThreshold;
+        this.openDurationMillis = builder.openDurationMillis;
+        this.scheduler = builder.scheduler;
+    }
+
+    public CompletableTransformer forCompletable() {
+        return upstream -> Completable.defer(() -> {
+            switch (acquire()) {
+                case REJECT:
+                    return Completable.error(reject());
+                case PROBE:
+                    return upstream.doOnComplete(this::recordSuccess).doOnDispose(this::releaseProbe);
+                default:
+                    return upstream.doOnComplete(this::recordSuccess);
+            }
+        })
+                .retryWhen(this::retries);
+    }
+
+    public <T> SingleTransformer<T, T> forSingle() {
+        return upstream -> Single.defer(() -> {
+            switch (acquire()) {
+                case REJECT:
+                    return Single.<T>error(reject());
+                case PROBE:
+                    return upstream.doOnSuccess(ignored -> recordSuccess()).doOnDispose(this::releaseProbe);
+                default:
+                    return upstream.doOnSuccess(ignored -> recordSuccess());
+            }
+        })
+                .retryWhen(this::retries);
+    }
+
+    /** {@code true} while calls are rejected: during the open period and while a probe is in flight. */
+    public boolean isOpen() {
+        long openedAt = openedAtMillis;
+        return openedAt != CLOSED && (now() - openedAt < openDurationMillis || probeInFlight.get());
+    }
+
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+
+    public long getCircuitOpenCount() {
+        return circuitOpenCount.get();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    private Flowable<Long> retries(Flowable<Throwable> errors) {
+        AtomicInteger attempt = new AtomicInteger(1);
+        return errors.flatMap(error -> {
+            if (error instanceof CircuitOpenException) {
+                return Flowable.<Long>error(error);
+            }
+            recordFailure();
+            if (attempt.get() >= maxAttempts || isOpen()) {
+                return Flowable.<Long>error(error);
+            }
+            retryCount.incrementAndGet();
+            return Flowable.timer(delayForAttempt(attempt.getAndIncrement()), TimeUnit.MILLISECONDS, scheduler);
+        });
+    }
+
+    private long delayForAttempt(int attempt) {
+        long delay = initialDelayMillis << Math.min(attempt - 1, 30);
+        if (delay <= 0 || delay > maxDelayMillis) {
+            delay = maxDelayMillis;
+        }
+        double factor;
+        synchronized (random) {
+            factor = 1 - jitter * random.nextDouble();
+        }
+        return Math.round(delay * factor);
+    }
+
+    /** Whether a call may go to the backend now; once the open period is over only one probe may. */
+    private int acquire() {
+        long openedAt = openedAtMillis;
+        if (openedAt == CLOSED) {
+            return PASS;
+        }
+        if (now() - openedAt < openDurationMillis) {
+            return REJECT;
+        }
+        return probeInFlight.compareAndSet(false, true) ? PROBE : REJECT;
+    }
+
+    private void releaseProbe() {
+        probeInFlight.set(false);
+    }
+
+    private void recordSuccess() {
+        consecutiveFailures.set(0);
+        openedAtMillis = CLOSED;
+        probeInFlight.set(false);
+    }
+
+    private void recordFailure() {
+        int failures = consecutiveFailures.incrementAndGet();
+        boolean probeFailed = probeInFlight.compareAndSet(true, false);
+        if (probeFailed || (failures >= failureThreshold && openedAtMillis == CLOSED)) {
+            openedAtMillis = now();
+            circuitOpenCount.incrementAndGet();
+        }
+    }
+
+    private CircuitOpenException reject() {
+        rejectedCount.incrementAndGet();
+        return new CircuitOpenException();
+    }
+
+    private long now() {
+        return scheduler.now(TimeUnit.MILLISECONDS);
+    }
+
+    /** Signalled instead of calling the backend while the circuit is open. */
+    public static class CircuitOpenException extends RuntimeException {
+        CircuitOpenException() {
+            super("Circuit is open, backend call rejected");
+        }
+    }
+
+    public static class Builder {
+        private long initialDelayMillis = 500;
+        private long maxDelayMillis = TimeUnit.SECONDS.toMillis(30);
+        private int maxAttempts = 5;
+        private double jitter = 0.5;
+        private int failureThreshold = 5;
+        private long openDurationMillis = TimeUnit.SECONDS.toMillis(30);
+        private Scheduler scheduler = Schedulers.computation();
+
+        public Builder setInitialDelay(long delay, TimeUnit unit) {
+            this.initialDelayMillis = unit.toMillis(delay);
+            return this;
+        }
+
+        public Builder setMaxDelay(long delay, TimeUnit unit) {
+            this.maxDelayMillis = unit.toMillis(delay);
+            return this;
+        }
+
+        public Builder setMaxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /** Fraction of the delay, between 0 and 1, that is randomized. */
+        public Builder setJitter(double jitter) {
+            this.jitter = jitter;
+            return this;
+        }
+
+        public Builder setFailureThreshold(int failureThreshold) {
+            this.failureThreshold = failureThreshold;
+            return this;
+        }
+
+        public Builder setOpenDuration(long duration, TimeUnit unit) {
+            this.openDurationMillis = unit.toMillis(duration);
+            return this;
+        }
+
+        public Builder setScheduler(Scheduler scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+
+        public RetryPolicy build() {
+            if (initialDelayMillis <= 0 || maxDelayMillis < initialDelayMillis) {
+                throw new IllegalArgumentException("Delays must be positive and maxDelay >= initialDelay!");
+            }
+            if (maxAttempts < 1 || failureThreshold < 1) {
+                throw new IllegalArgumentException("maxAttempts and failureThreshold must be positive!");
+            }
+            if (jitter < 0 || jitter > 1) {
+                throw new IllegalArgumentException("jitter must be between 0 and 1!");
+            }
+            return new RetryPolicy(this);
+        }
+    }
+}
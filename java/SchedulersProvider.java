@@ -0,0 +1,24 @@
+package com.boomylabs.listly.data.rx;
+
+import io.reactivex.Scheduler;
+
+/**
+ * Schedulers for presenters and interactors. Inject it instead of using {@code Schedulers} and
+ * {@code AndroidSchedulers} directly, so tests can run everything on a virtual clock.
+ */
+public interface SchedulersProvider {
+
+    Scheduler ui();
+
+    /** Bounded pool for backend calls. */
+    Scheduler network();
+
+    /**
+     * Single thread for database and local file work. Tasks on it run one at a time, but a chain
+     * that leaves it between a read and the write depending on it is not protected from others.
+     */
+    Scheduler database();
+
+    /** Pool sized to the CPU count for diffing, parsing and other CPU bound work. */
+    Scheduler computation();
+}
@@ -0,0 +1,55 @@
+package com.boomylabs.listly.ui.common.mvi;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import io.reactivex.disposables.Disposable;
+
+/**
+ * Container for the subscriptions of one presenter lifecycle scope, e.g. from bindIntents() to
+ * unbindIntents(). Like a CompositeDisposable it can be cleared and reused; unlike it, it drops
+ * subscriptions that finished on their own when new ones are added, instead of holding them until
+ * the next clear(), and it reports how many are still live, so leaks show up in tests.
+ */
+public class SubscriptionScope {
+
+    private final Set<Disposable> disposables = new HashSet<>();
+    private long disposedCount;
+
+    public synchronized void add(Disposable disposable) {
+        pruneFinished();
+        disposables.add(disposable);
+    }
+
+    /** Disposes every live subscription; the scope can be used again afterwards. */
+    public synchronized void clear() {
+        for (Disposable disposable : disposables) {
+            if (!disposable.isDisposed()) {
+                disposable.dispose();
+                disposedCount++;
+            }
+        }
+        disposables.clear();
+    }
+
+    /** Number of subscriptions that are neither finished nor disposed. */
+    public synchronized int getLiveCount() {
+        pruneFinished();
+        return disposables.size();
+    }
+
+    /** Number of subscriptions that were still live when the scope was cleared. */
+    public synchronized long getDisposedCount() {
+        return disposedCount;
+    }
+
+    private void pruneFinished() {
+        Iterator<Disposable> iterator = disposables.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isDisposed()) {
+                iterator.remove();
+            }
+        }
+    }
+}
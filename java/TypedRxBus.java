@@ -0,0 +1,312 @@
+package com.boomylabs.listly.data.eventbus;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.reactivex.BackpressureOverflowStrategy;
+import io.reactivex.Scheduler;
+import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Consumer;
+import io.reactivex.processors.FlowableProcessor;
+import io.reactivex.processors.PublishProcessor;
+
+/**
+ * Typed view of {@link RxBus}.
+ * <p>
+ * Subscribers are indexed by subject and event class, so an event is cast once and only handed
+ * to subscribers of a matching class. Each subscriber gets its own bounded buffer: when it falls
+ * behind, the oldest events are dropped, and a latest-only subscriber keeps just the newest one.
+ * Sticky subscribers receive the last event of the subject on subscription. Every subject keeps
+ * {@link SubjectStats} with its queue depth and dispatch latency.
+ * <p>
+ * Events are still published through {@link RxBus}; the first typed subscription of a subject
+ * bridges it into this bus for the rest of the process.
+ */
+public final class TypedRxBus {
+
+    public static final int DEFAULT_BUFFER_SIZE = 16;
+
+    private static final String TAG = "TypedRxBus";
+
+    private static final TypedRxBus INSTANCE = new TypedRxBus();
+
+    private final Map<Integer, SubjectStats> subjects = new ConcurrentHashMap<>();
+
+    private TypedRxBus() {
+    }
+
+    public static TypedRxBus getInstance() {
+        return INSTANCE;
+    }
+
+    public <T> Disposable subscribe(int subject, @NonNull Class<T> type, @NonNull Consumer<? super T> action) {
+        return subscribe(subject, type, Options.DEFAULT, action);
+    }
+
+    public <T> Disposable subscribe(int subject, @NonNull Class<T> type, @NonNull Options options,
+                                    @NonNull Consumer<? super T> action) {
+        SubjectStats stats = getOrBridgeSubject(subject);
+        TypedSubscriber<T> subscriber = new TypedSubscriber<>(stats, type, options, action);
+        stats.add(subscriber);
+        Envelope last = stats.lastEnvelope;
+        if (options.sticky && last != null && type.isInstance(last.event)) {
+            subscriber.offer(last);
+        }
+        return subscriber;
+    }
+
+    /** Stats of the subject, or {@code null} if it never had a typed subscriber. */
+    @Nullable
+    public SubjectStats getStats(int subject) {
+        return subjects.get(subject);
+    }
+
+    private SubjectStats getOrBridgeSubject(int subject) {
+        SubjectStats stats = subjects.get(subject);
+        if (stats != null) {
+            return stats;
+        }
+        synchronized (subjects) {
+            stats = subjects.get(subject);
+            if (stats == null) {
+                stats = new SubjectStats();
+                RxBus.subscribe(subject, stats, stats::dispatch);
+                subjects.put(subject, stats);
+            }
+            return stats;
+        }
+    }
+
+    public static final class Options {
+
+        public static final Options DEFAULT = new Builder().build();
+
+        private final boolean sticky;
+        private final boolean latestOnly;
+        private final int bufferSize;
+        private final Scheduler scheduler;
+
+        private Options(Builder builder) {
+            this.sticky = builder.sticky;
+            this.latestOnly = builder.latestOnly;
+            // only the newest event is ever delivered, a longer buffer would just hold stale ones
+            this.bufferSize = builder.latestOnly ? 1 : builder.bufferSize;
+            this.scheduler = builder.scheduler;
+        }
+
+        public static class Builder {
+            private boolean sticky = false;
+            private boolean latestOnly = false;
+            private int bufferSize = DEFAULT_BUFFER_SIZE;
+            private Scheduler scheduler = AndroidSchedulers.mainThread();
+
+            public Builder setSticky(boolean sticky) {
+                this.sticky = sticky;
+                return this;
+            }
+
+            /** Keep only the newest undelivered event, whatever the buffer size. */
+            public Builder setLatestOnly() {
+                this.latestOnly = true;
+                return this;
+            }
+
+            /** Undelivered events kept before the oldest is dropped; ignored for latest-only. */
+            public Builder setBufferSize(int bufferSize) {
+                if (bufferSize <= 0) {
+                    throw new IllegalArgumentException("Buffer size must be positive!");
+                }
+                this.bufferSize = bufferSize;
+                return this;
+            }
+
+            /** Scheduler the action is called on, the main thread by default. */
+            public Builder setScheduler(@NonNull Scheduler scheduler) {
+                this.scheduler = scheduler;
+                return this;
+            }
+
+            public Options build() {
+                return new Options(this);
+            }
+        }
+    }
+
+    /** Subscribers and delivery metrics of one subject. */
+    public static final class SubjectStats {
+
+        private final Map<Class<?>, CopyOnWriteArrayList<TypedSubscriber<?>>> subscribersByType =
+                new ConcurrentHashMap<>();
+
+        private final AtomicLong dispatchedCount = new AtomicLong();
+        private final AtomicLong deliveredCount = new AtomicLong();
+        private final AtomicLong droppedCount = new AtomicLong();
+        private final AtomicLong totalLatencyNanos = new AtomicLong();
+        private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+        private volatile Envelope lastEnvelope;
+
+        private SubjectStats() {
+        }
+
+        public int getSubscriberCount() {
+            int count = 0;
+            for (CopyOnWriteArrayList<TypedSubscriber<?>> subscribers : subscribersByType.values()) {
+                count += subscribers.size();
+            }
+            return count;
+        }
+
+        /** Events dispatched but not yet delivered, summed over all subscribers. */
+        public int getQueueDepth() {
+            int depth = 0;
+            for (CopyOnWriteArrayList<TypedSubscriber<?>> subscribers : subscribersByType.values()) {
+                for (TypedSubscriber<?> subscriber : subscribers) {
+                    depth += subscriber.pending.get();
+                }
+            }
+            return depth;
+        }
+
+        public long getDispatchedCount() {
+            return dispatchedCount.get();
+        }
+
+        public long getDeliveredCount() {
+            return deliveredCount.get();
+        }
+
+        /** Events dropped because a subscriber's buffer was full. */
+        public long getDroppedCount() {
+            return droppedCount.get();
+        }
+
+        /** Average time from dispatch to delivery to a subscriber. */
+        public long getAverageLatencyNanos() {
+            long delivered = deliveredCount.get();
+            return delivered == 0 ? 0 : totalLatencyNanos.get() / delivered;
+        }
+
+        public long getMaxLatencyNanos() {
+            return maxLatencyNanos.get();
+        }
+
+        private void add(TypedSubscriber<?> subscriber) {
+            CopyOnWriteArrayList<TypedSubscriber<?>> subscribers = subscribersByType.get(subscriber.type);
+            if (subscribers == null) {
+                subscribersByType.putIfAbsent(subscriber.type, new CopyOnWriteArrayList<>());
+                subscribers = subscribersByType.get(subscriber.type);
+            }
+            subscribers.add(subscriber);
+        }
+
+        private void remove(TypedSubscriber<?> subscriber) {
+            CopyOnWriteArrayList<TypedSubscriber<?>> subscribers = subscribersByType.get(subscriber.type);
+            if (subscribers != null) {
+                subscribers.remove(subscriber);
+            }
+        }
+
+        private void dispatch(Object event) {
+            // one envelope per event, shared by all subscribers
+            Envelope envelope = new Envelope(event, System.nanoTime());
+            lastEnvelope = envelope;
+            dispatchedCount.incrementAndGet();
+            for (Map.Entry<Class<?>, CopyOnWriteArrayList<TypedSubscriber<?>>> entry : subscribersByType.entrySet()) {
+                if (entry.getKey().isInstance(event)) {
+                    for (TypedSubscriber<?> subscriber : entry.getValue()) {
+                        subscriber.offer(envelope);
+                    }
+                }
+            }
+        }
+
+        private void onDelivered(Envelope envelope) {
+            long latency = System.nanoTime() - envelope.dispatchNanos;
+            deliveredCount.incrementAndGet();
+            totalLatencyNanos.addAndGet(latency);
+            long max;
+            do {
+                max = maxLatencyNanos.get();
+            } while (latency > max && !maxLatencyNanos.compareAndSet(max, latency));
+        }
+    }
+
+    private static final class Envelope {
+        final Object event;
+        final long dispatchNanos;
+
+        Envelope(Object event, long dispatchNanos) {
+            this.event = event;
+            this.dispatchNanos = dispatchNanos;
+        }
+    }
+
+    private static final class TypedSubscriber<T> implements Disposable {
+
+        private final SubjectStats stats;
+        private final Class<T> type;
+        private final AtomicInteger pending = new AtomicInteger();
+        private final AtomicReference<Envelope> latest = new AtomicReference<>();
+        private final FlowableProcessor<Envelope> processor = PublishProcessor.<Envelope>create().toSerialized();
+        private final Disposable disposable;
+
+        TypedSubscriber(SubjectStats stats, Class<T> type, Options options, Consumer<? super T> action) {
+            this.stats = stats;
+            this.type = type;
+            this.disposable = processor
+                    .onBackpressureBuffer(options.bufferSize, this::onDropped, BackpressureOverflowStrategy.DROP_OLDEST)
+                    .observeOn(options.scheduler, false, 1)
+                    .subscribe(envelope -> {
+                        // observeOn keeps one event queued behind the one being handled,
+                        // a latest-only subscriber skips it if a newer one came in since
+                        if (options.latestOnly && envelope != latest.get()) {
+                            onDropped();
+                            return;
+                        }
+                        pending.decrementAndGet();
+                        stats.onDelivered(envelope);
+                        try {
+                            action.accept(type.cast(envelope.event));
+                        } catch (Exception e) {
+                            // a failing action must not cut the subscriber off the bus
+                            Log.e(TAG, "Subscriber of " + type.getName() + " failed", e);
+                        }
+                    });
+        }
+
+        void offer(Envelope envelope) {
+            if (!isDisposed()) {
+                pending.incrementAndGet();
+                latest.set(envelope);
+                processor.onNext(envelope);
+            }
+        }
+
+        private void onDropped() {
+            pending.decrementAndGet();
+            stats.droppedCount.incrementAndGet();
+        }
+
+        @Override
+        public void dispose() {
+            disposable.dispose();
+            stats.remove(this);
+            pending.set(0);
+        }
+
+        @Override
+        public boolean isDisposed() {
+            return disposable.isDisposed();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.boomylabs.listly.ui.widgets;
+
+import android.graphics.Rect;
+import android.text.TextPaint;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Allocations per layout pass of a {@link CenteredDrawableTextView} whose text did not change,
+ * against measuring the text through {@code getText().toString()} on every pass as before.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class CenteredDrawableTextViewBenchmark {
+
+    private static final int WIDTH = 480;
+    private static final int HEIGHT = 96;
+    private static final int WARMUP_PASSES = 2_000;
+    private static final int PASSES = 20_000;
+
+    @Test
+    public void layoutPassWithUnchangedTextDoesNotAllocateForMeasurement() {
+        CenteredDrawableTextView view = new CenteredDrawableTextView(RuntimeEnvironment.application);
+        view.setText("Upvoted by 42 people");
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        for (int i = 0; i < WARMUP_PASSES; i++) {
+            layoutPass(view, i);
+        }
+        long startBytes = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < PASSES; i++) {
+            layoutPass(view, i);
+        }
+        long cachedBytes = (threads.getThreadAllocatedBytes(threadId) - startBytes) / PASSES;
+
+        TextPaint paint = view.getPaint();
+        Rect bounds = new Rect();
+        startBytes = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < PASSES; i++) {
+            layoutPass(view, i);
+            String text = view.getText().toString();
+            paint.getTextBounds(text, 0, text.length(), bounds);
+        }
+        long uncachedBytes = (threads.getThreadAllocatedBytes(threadId) - startBytes) / PASSES;
+
+        System.out.println("Bytes allocated per layout pass: " + cachedBytes + " cached, "
+                + uncachedBytes + " when measuring through toString()");
+        assertTrue(cachedBytes < uncachedBytes);
+    }
+
+    /** Lays the view out with a changed height only, so onLayout runs but the text width is the same. */
+    private static void layoutPass(CenteredDrawableTextView view, int pass) {
+        view.layout(0, 0, WIDTH, HEIGHT + (pass & 1));
+    }
+}
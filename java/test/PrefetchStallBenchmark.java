@@ -0,0 +1,146 @@
+package com.boomylabs.listly.data.interactor;
+
+import com.boomylabs.listly.data.http.ListlyApiDecorator;
+import com.boomylabs.listly.data.model.presentation.ListItemSetup;
+import com.boomylabs.listly.data.model.test.ListItem;
+import com.boomylabs.listly.data.model.test.ListItemType;
+import com.boomylabs.listly.data.rx.TestSchedulersProvider;
+import com.boomylabs.listly.persistence.IListItemRepository;
+
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+
+import java.lang.reflect.ParameterizedType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Completable;
+import io.reactivex.Maybe;
+import io.reactivex.Observable;
+import io.reactivex.Single;
+
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.RETURNS_DEFAULTS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Scroll-end stall with and without prefetch: a reader scrolls through a list served by a fake
+ * {@link ListlyApiDecorator} with a fixed latency, and the time {@code loadMore} blocks at the end
+ * of every page is summed.
+ */
+public class PrefetchStallBenchmark {
+
+    private static final String LIST_ID = "list";
+    private static final ListItemType TYPE = ListItemType.LIST;
+    private static final int TOTAL_ITEMS = 200;
+    private static final int PAGE_SIZE = 10;
+    private static final int PREFETCH_DISTANCE = 5;
+    private static final long LATENCY_MILLIS = 150;
+    private static final long ITEM_READ_MILLIS = 40;
+
+    @Test
+    public void prefetchRemovesScrollEndStall() throws Exception {
+        long stallWithout = scrollThrough(false);
+        long stallWith = scrollThrough(true);
+        System.out.println("Scroll-end stall over " + TOTAL_ITEMS / PAGE_SIZE + " pages at "
+                + LATENCY_MILLIS + " ms latency: " + stallWithout + " ms without prefetch, "
+                + stallWith + " ms with prefetch");
+        assertTrue(stallWith * 2 < stallWithout);
+    }
+
+    private long scrollThrough(boolean prefetch) throws Exception {
+        FakeRepository repository = new FakeRepository();
+        DetailsInteractor interactor = new DetailsInteractor(delayedApi(), repository.mock,
+                new TestSchedulersProvider());
+        ListItemSetup setup = mock(ListItemSetup.class);
+        PageSizePolicy pageSizePolicy = PageSizePolicy.fixed(PAGE_SIZE);
+
+        interactor.refreshListItems(LIST_ID, TYPE, setup, pageSizePolicy).blockingAwait();
+        long stallNanos = 0;
+        while (!repository.completed) {
+            int end = repository.items.size();
+            for (int position = end - PAGE_SIZE; position < end; position++) {
+                if (prefetch) {
+                    interactor.prefetchNextPage(LIST_ID, TYPE, setup, position, PREFETCH_DISTANCE, pageSizePolicy)
+                            .subscribe();
+                }
+                Thread.sleep(ITEM_READ_MILLIS);
+            }
+            long start = System.nanoTime();
+            interactor.loadMoreListItems(LIST_ID, TYPE, setup, pageSizePolicy).blockingAwait();
+            stallNanos += System.nanoTime() - start;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(stallNanos);
+    }
+
+    /** Serves keyset pages of {@link #TOTAL_ITEMS} items after {@link #LATENCY_MILLIS}. */
+    private static ListlyApiDecorator delayedApi() {
+        return mock(ListlyApiDecorator.class, invocation -> {
+            String method = invocation.getMethod().getName();
+            if (!method.equals("retrieveListItems") && !method.equals("retrieveQueuedListItems")) {
+                return RETURNS_DEFAULTS.answer(invocation);
+            }
+            String afterItemId = invocation.getArgument(4);
+            int amount = invocation.getArgument(5);
+            int from = afterItemId == null ? 0 : Integer.parseInt(afterItemId.substring(5)) + 1;
+            List<ListItem> items = new ArrayList<>();
+            for (int i = from; i < Math.min(from + amount, TOTAL_ITEMS); i++) {
+                items.add(listItem(i));
+            }
+            return Observable.just(response(invocation, items)).delay(LATENCY_MILLIS, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    /** Response of the invoked method whose list getters return the given items. */
+    private static Object response(InvocationOnMock invocation, List<ListItem> items) {
+        Class<?> responseType = (Class<?>) ((ParameterizedType) invocation.getMethod().getGenericReturnType())
+                .getActualTypeArguments()[0];
+        return mock(responseType, getter -> List.class.isAssignableFrom(getter.getMethod().getReturnType())
+                ? items
+                : RETURNS_DEFAULTS.answer(getter));
+    }
+
+    private static ListItem listItem(int index) {
+        ListItem listItem = mock(ListItem.class);
+        when(listItem.getId()).thenReturn("item-" + index);
+        return listItem;
+    }
+
+    /** In-memory repository holding a single list. */
+    private static final class FakeRepository {
+        final IListItemRepository mock = mock(IListItemRepository.class);
+        final List<ListItem> items = new ArrayList<>();
+        volatile boolean completed;
+        volatile ListItemCursor cursor;
+
+        FakeRepository() {
+            when(mock.getListItems(anyString(), any())).thenAnswer(ignored -> Single.fromCallable(this::snapshot));
+            when(mock.getListItemsAreCompletedObservable(anyString(), any()))
+                    .thenAnswer(ignored -> Observable.fromCallable(() -> completed));
+            when(mock.getListItemsCursor(anyString(), any())).thenAnswer(ignored -> Maybe.fromCallable(() -> cursor));
+            when(mock.setListItems(anyString(), any(), anyList(), anyBoolean(), any()))
+                    .thenAnswer(invocation -> Completable.fromAction(() -> store(invocation, true)));
+            when(mock.addListItems(anyString(), any(), anyList(), anyBoolean(), any()))
+                    .thenAnswer(invocation -> Completable.fromAction(() -> store(invocation, false)));
+        }
+
+        private synchronized List<ListItem> snapshot() {
+            return new ArrayList<>(items);
+        }
+
+        private synchronized void store(InvocationOnMock invocation, boolean replace) {
+            if (replace) {
+                items.clear();
+            }
+            items.addAll(invocation.getArgument(2));
+            completed = invocation.getArgument(3);
+            cursor = invocation.getArgument(4);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.boomylabs.listly.data.rx;
+
+import io.reactivex.Scheduler;
+import io.reactivex.schedulers.TestScheduler;
+
+/**
+ * {@link SchedulersProvider} for tests: every scheduler is the same {@link TestScheduler}, so
+ * work runs only when the test advances its virtual clock.
+ */
+public class TestSchedulersProvider implements SchedulersProvider {
+
+    private final TestScheduler scheduler;
+
+    public TestSchedulersProvider() {
+        this(new TestScheduler());
+    }
+
+    public TestSchedulersProvider(TestScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    public TestScheduler getScheduler() {
+        return scheduler;
+    }
+
+    @Override
+    public Scheduler ui() {
+        return scheduler;
+    }
+
+    @Override
+    public Scheduler network() {
+        return scheduler;
+    }
+
+    @Override
+    public Scheduler database() {
+        return scheduler;
+    }
+
+    @Override
+    public Scheduler computation() {
+        return scheduler;
+    }
+}
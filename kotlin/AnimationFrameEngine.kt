@@ -0,0 +1,144 @@
+package com.itexus.smartgarlands.utils.common.animations
+
+import com.itexus.smartgarlands.domain.DataManager
+import com.itexus.smartgarlands.utils.subscribeWithErrorLog
+import io.reactivex.Scheduler
+import io.reactivex.Single
+import io.reactivex.disposables.Disposable
+import io.realm.Realm
+
+/**
+ * Lamp colours of the currently played animation packed into one [IntArray], frame by frame, so
+ * a rendered frame costs an array copy instead of a [DataManager] query and allocates nothing.
+ *
+ * The first request for an animation starts loading all of its frames on [loadScheduler] and
+ * publishes them as one immutable index, which the render thread reads without locking. The
+ * index covers the timestamps the animation actually has, from its first to its last frame.
+ * Until the index is ready, and for animations too large to index, frames are queried from
+ * [DataManager] as before.
+ */
+class AnimationFrameEngine(
+        private val dataManager: DataManager,
+        private val loadScheduler: Scheduler
+) {
+
+    /**
+     * Frame `i` holds the timestamp `firstTimestamp + i`; its colours start at `i * lampsPerFrame`
+     * in [colors] and [lampCounts] has its number of lamps, or [NO_FRAME] for a gap.
+     */
+    private class FrameIndex(
+            val animationName: String,
+            val firstTimestamp: Int,
+            val lampsPerFrame: Int,
+            val lampCounts: IntArray,
+            val colors: IntArray,
+            val isIndexed: Boolean = true
+    )
+
+    @Volatile private var index: FrameIndex? = null
+    private var loadingAnimationName: String? = null
+    private var loading: Disposable? = null
+
+    val frameCount: Int
+        get() = index?.lampCounts?.size ?: 0
+
+    /**
+     * Copies the lamp colours of the frame at [timestamp] into [colors] and returns the number of
+     * lamps, or [NO_FRAME] if the animation has no frame at that timestamp.
+     */
+    fun getLampColors(animationName: String, timestamp: Int, colors: IntArray): Int {
+        val index = index
+        if (index == null || index.animationName != animationName) {
+            loadInBackground(animationName)
+        } else if (index.isIndexed) {
+            val frame = timestamp - index.firstTimestamp
+            if (frame < 0 || frame >= index.lampCounts.size) {
+                return NO_FRAME
+            }
+            val lampCount = index.lampCounts[frame]
+            if (lampCount > 0) {
+                System.arraycopy(index.colors, frame * index.lampsPerFrame, colors, 0, lampCount)
+            }
+            return lampCount
+        }
+        val lamps = dataManager.getAnimationLampsForTimestamp(animationName, timestamp) ?: return NO_FRAME
+        for (i in lamps.indices) {
+            colors[i] = lamps[i].color
+        }
+        return lamps.size
+    }
+
+    /** Drops the index and cancels loading, e.g. after the animation was regenerated. */
+    @Synchronized
+    fun invalidate() {
+        loading?.dispose()
+        loading = null
+        loadingAnimationName = null
+        index = null
+    }
+
+    @Synchronized
+    private fun loadInBackground(animationName: String) {
+        if (animationName == loadingAnimationName) {
+            return
+        }
+        loading?.dispose()
+        loadingAnimationName = animationName
+        loading = Single.fromCallable { buildIndex(animationName) }
+                .subscribeOn(loadScheduler)
+                .subscribeWithErrorLog { publish(it) }
+    }
+
+    @Synchronized
+    private fun publish(index: FrameIndex) {
+        // an invalidation or another animation may have superseded this load
+        if (index.animationName == loadingAnimationName) {
+            this.index = index
+            loading = null
+        }
+    }
+
+    private fun buildIndex(animationName: String): FrameIndex {
+        Realm.getDefaultInstance().use {
+            val timestamps = dataManager.getAnimationFrameTimestamps(animationName)
+            if (timestamps.isEmpty()) {
+                // nothing stored yet, keep asking DataManager
+                return notIndexed(animationName)
+            }
+            val firstTimestamp = timestamps.min()!!
+            val frameCount = timestamps.max()!! - firstTimestamp + 1
+            if (frameCount > MAX_FRAMES) {
+                return notIndexed(animationName)
+            }
+            val frameColors = arrayOfNulls<IntArray>(frameCount)
+            var lampsPerFrame = 0
+            for (timestamp in timestamps) {
+                val lamps = dataManager.getAnimationLampsForTimestamp(animationName, timestamp) ?: continue
+                frameColors[timestamp - firstTimestamp] = IntArray(lamps.size) { lamps[it].color }
+                lampsPerFrame = maxOf(lampsPerFrame, lamps.size)
+            }
+            if (frameCount.toLong() * lampsPerFrame > MAX_COLORS) {
+                return notIndexed(animationName)
+            }
+            val lampCounts = IntArray(frameCount) { NO_FRAME }
+            val colors = IntArray(frameCount * lampsPerFrame)
+            for (frame in 0 until frameCount) {
+                val frameColor = frameColors[frame] ?: continue
+                lampCounts[frame] = frameColor.size
+                System.arraycopy(frameColor, 0, colors, frame * lampsPerFrame, frameColor.size)
+            }
+            return FrameIndex(animationName, firstTimestamp, lampsPerFrame, lampCounts, colors)
+        }
+    }
+
+    private fun notIndexed(animationName: String) =
+            FrameIndex(animationName, 0, 0, IntArray(0), IntArray(0), isIndexed = false)
+
+    companion object {
+        const val NO_FRAME = -1
+
+        private const val MAX_FRAMES = 10_000
+        // 8 MB of colours at most
+        private const val MAX_COLORS = 2_000_000L
+    }
+}
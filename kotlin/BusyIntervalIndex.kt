@@ -0,0 +1,182 @@
+package com.ready.be.beready.logic
+
+/**
+ * Free/busy index over time intervals (epoch millis, end exclusive), e.g. calendar instances
+ * and negotiation time intervals.
+ *
+ * Intervals are stored by key, so inserts, updates and removals are O(1). The busy time is kept
+ * as sorted primitive arrays of disjoint blocks together with a max-gap segment tree; both are
+ * rebuilt lazily on the first query after a change, in O(n log n). Queries are O(log n).
+ */
+class BusyIntervalIndex {
+
+    private val intervals = HashMap<String, LongArray>()
+
+    private var dirty = false
+    private var blockCount = 0
+    private var blockStarts = LongArray(0)
+    private var blockEnds = LongArray(0)
+    // Segment tree over the gaps between consecutive blocks: gap i lies between block i and i + 1
+    private var gapTreeSize = 1
+    private var gapTree = LongArray(0)
+
+    val size: Int
+        @Synchronized get() = intervals.size
+
+    @Synchronized
+    fun put(key: String, start: Long, end: Long) {
+        if (end <= start) {
+            remove(key)
+            return
+        }
+        val interval = intervals[key]
+        if (interval == null) {
+            intervals[key] = longArrayOf(start, end)
+        } else if (interval[0] != start || interval[1] != end) {
+            interval[0] = start
+            interval[1] = end
+        } else {
+            return
+        }
+        dirty = true
+    }
+
+    @Synchronized
+    fun remove(key: String) {
+        if (intervals.remove(key) != null) {
+            dirty = true
+        }
+    }
+
+    @Synchronized
+    fun removeAll(predicate: (String) -> Boolean) {
+        if (intervals.keys.removeAll(predicate)) {
+            dirty = true
+        }
+    }
+
+    @Synchronized
+    fun clear() {
+        intervals.clear()
+        dirty = true
+    }
+
+    /** Whether any stored interval overlaps `[start, end)`. */
+    @Synchronized
+    fun isBusy(start: Long, end: Long): Boolean {
+        rebuildIfDirty()
+        // last block starting before end
+        val index = upperBound(blockStarts, blockCount, end - 1) - 1
+        return index >= 0 && blockEnds[index] > start
+    }
+
+    /**
+     * Earliest start `>= from` of a free slot of [duration] millis that ends no later than [until],
+     * or `null` if there is none.
+     */
+    @Synchronized
+    fun nextFreeSlot(from: Long, duration: Long, until: Long = Long.MAX_VALUE): Long? {
+        rebuildIfDirty()
+        // first block ending after from
+        val first = upperBound(blockEnds, blockCount, from)
+        val candidate = when {
+            first == blockCount -> from
+            blockStarts[first] >= from + duration -> from
+            else -> {
+                val gap = firstGapAtLeast(first, duration)
+                if (gap < 0) blockEnds[blockCount - 1] else blockEnds[gap]
+            }
+        }
+        val start = maxOf(candidate, from)
+        return if (start + duration <= until) start else null
+    }
+
+    private fun rebuildIfDirty() {
+        if (!dirty) {
+            return
+        }
+        dirty = false
+
+        val count = intervals.size
+        val starts = LongArray(count)
+        val ends = LongArray(count)
+        var i = 0
+        for (interval in intervals.values) {
+            starts[i] = interval[0]
+            ends[i] = interval[1]
+            i++
+        }
+        starts.sort()
+        ends.sort()
+
+        // Sweep sorted starts and ends: a block closes whenever the overlap depth drops to zero
+        if (blockStarts.size < count) {
+            blockStarts = LongArray(count)
+            blockEnds = LongArray(count)
+        }
+        blockCount = 0
+        var s = 0
+        var e = 0
+        var depth = 0
+        var blockStart = 0L
+        while (e < count) {
+            if (s < count && starts[s] <= ends[e]) {
+                if (depth++ == 0) {
+                    blockStart = starts[s]
+                }
+                s++
+            } else {
+                if (--depth == 0) {
+                    blockStarts[blockCount] = blockStart
+                    blockEnds[blockCount] = ends[e]
+                    blockCount++
+                }
+                e++
+            }
+        }
+
+        gapTreeSize = 1
+        while (gapTreeSize < blockCount) {
+            gapTreeSize = gapTreeSize shl 1
+        }
+        gapTree = LongArray(2 * gapTreeSize)
+        for (gap in 0 until blockCount - 1) {
+            gapTree[gapTreeSize + gap] = blockStarts[gap + 1] - blockEnds[gap]
+        }
+        for (node in gapTreeSize - 1 downTo 1) {
+            gapTree[node] = maxOf(gapTree[2 * node], gapTree[2 * node + 1])
+        }
+    }
+
+    /** Index of the first gap `>= from` that is at least [length] long, or -1. */
+    private fun firstGapAtLeast(from: Int, length: Long): Int {
+        return if (blockCount < 2) -1 else firstGapAtLeast(1, 0, gapTreeSize - 1, from, length)
+    }
+
+    private fun firstGapAtLeast(node: Int, left: Int, right: Int, from: Int, length: Long): Int {
+        if (right < from || gapTree[node] < length) {
+            return -1
+        }
+        if (left == right) {
+            return if (left < blockCount - 1) left else -1
+        }
+        val middle = (left + right) / 2
+        val inLeft = firstGapAtLeast(2 * node, left, middle, from, length)
+        return if (inLeft >= 0) inLeft else firstGapAtLeast(2 * node + 1, middle + 1, right, from, length)
+    }
+
+    /** Index of the first of the first [count] elements of sorted [array] that is greater than [value]. */
+    private fun upperBound(array: LongArray, count: Int, value: Long): Int {
+        var low = 0
+        var high = count
+        while (low < high) {
+            val middle = (low + high) ushr 1
+            if (array[middle] <= value) {
+                low = middle + 1
+            } else {
+                high = middle
+            }
+        }
+        return low
+    }
+}
@@ -0,0 +1,151 @@
+package com.ready.be.beready.logic
+
+import android.annotation.SuppressLint
+import android.content.Context
+import android.database.ContentObserver
+import android.os.Handler
+import android.os.HandlerThread
+import android.provider.CalendarContract.Events
+import com.ready.be.beready.BeReadyApp
+
+/** Change of a calendar event linked to a negotiation through `calendarEventId`. */
+sealed class CalendarChange {
+    abstract val negotiationId: String
+    abstract val eventId: Long
+
+    data class Added(override val negotiationId: String, override val eventId: Long) : CalendarChange()
+    data class Changed(override val negotiationId: String, override val eventId: Long) : CalendarChange()
+    data class Deleted(override val negotiationId: String, override val eventId: Long) : CalendarChange()
+}
+
+/**
+ * Incremental change feed for calendar events linked to negotiations.
+ *
+ * Listens to [Events.CONTENT_URI] and, after a burst of notifications has settled for
+ * [debounceMillis], re-queries only the linked events with a narrow projection. The result is
+ * compared against the watermark of the previous sync (a fingerprint per event), so only events
+ * added, changed or deleted since then are reported. [linkedEvents] supplies the current
+ * `calendarEventId` to negotiation id mapping; [listener] is called on the tracker's own thread.
+ */
+class CalendarChangeTracker(
+        private val linkedEvents: () -> Map<Long, String>,
+        private val listener: (List<CalendarChange>) -> Unit,
+        private val debounceMillis: Long = DEFAULT_DEBOUNCE_MILLIS,
+        private val context: Context = BeReadyApp.instance
+) {
+
+    private var thread: HandlerThread? = null
+    private var handler: Handler? = null
+    private var observer: ContentObserver? = null
+
+    // Watermark of the last sync: fingerprint of every linked event, DELETED if it is gone
+    private val fingerprints = HashMap<Long, Int>()
+
+    private val syncRunnable = Runnable { sync(notify = true) }
+
+    @Synchronized
+    fun start() {
+        if (thread != null) {
+            return
+        }
+        val thread = HandlerThread(THREAD_NAME).also { it.start() }
+        val handler = Handler(thread.looper)
+        val observer = object : ContentObserver(handler) {
+            override fun onChange(selfChange: Boolean) {
+                requestSync()
+            }
+        }
+        context.contentResolver.registerContentObserver(Events.CONTENT_URI, true, observer)
+        this.thread = thread
+        this.handler = handler
+        this.observer = observer
+        // the first start only takes the watermark, a restart reports what changed while stopped
+        handler.post { sync(notify = fingerprints.isNotEmpty()) }
+    }
+
+    @Synchronized
+    fun stop() {
+        observer?.let { context.contentResolver.unregisterContentObserver(it) }
+        thread?.quitSafely()
+        observer = null
+        handler = null
+        thread = null
+    }
+
+    /** Schedules a re-query, e.g. after negotiations were linked to new events. */
+    @Synchronized
+    fun requestSync() {
+        handler?.apply {
+            removeCallbacks(syncRunnable)
+            postDelayed(syncRunnable, debounceMillis)
+        }
+    }
+
+    private fun sync(notify: Boolean) {
+        val links = linkedEvents()
+        val current = queryFingerprints(links.keys)
+        val changes = ArrayList<CalendarChange>()
+
+        fingerprints.keys.retainAll(links.keys)
+        for ((eventId, negotiationId) in links) {
+            val previous = fingerprints[eventId]
+            val fingerprint = current[eventId] ?: DELETED
+            when {
+                previous == fingerprint -> Unit
+                fingerprint == DELETED -> changes += CalendarChange.Deleted(negotiationId, eventId)
+                previous == null || previous == DELETED -> changes += CalendarChange.Added(negotiationId, eventId)
+                else -> changes += CalendarChange.Changed(negotiationId, eventId)
+            }
+            fingerprints[eventId] = fingerprint
+        }
+
+        if (notify && changes.isNotEmpty()) {
+            listener(changes)
+        }
+    }
+
+    @SuppressLint("MissingPermission")
+    private fun queryFingerprints(eventIds: Collection<Long>): Map<Long, Int> {
+        val result = HashMap<Long, Int>(eventIds.size * 2)
+        for (chunk in eventIds.chunked(MAX_SELECTION_ARGS)) {
+            val selection = "${Events._ID} IN (${chunk.joinToString(",") { "?" }})"
+            val selectionArgs = Array(chunk.size) { chunk[it].toString() }
+            val cursor = context.contentResolver.query(Events.CONTENT_URI, PROJECTION,
+                    selection, selectionArgs, null) ?: continue
+            cursor.use {
+                while (cursor.moveToNext()) {
+                    if (cursor.getInt(COLUMN_DELETED) != 0) {
+                        continue
+                    }
+                    var fingerprint = 17
+                    for (column in 1 until PROJECTION.size) {
+                        fingerprint = 31 * fingerprint + (cursor.getString(column)?.hashCode() ?: 0)
+                    }
+                    // never collide with the DELETED marker
+                    result[cursor.getLong(COLUMN_ID)] = if (fingerprint == DELETED) fingerprint + 1 else fingerprint
+                }
+            }
+        }
+        return result
+    }
+
+    companion object {
+        const val DEFAULT_DEBOUNCE_MILLIS = 500L
+
+        private const val THREAD_NAME = "CalendarChangeTracker"
+        private const val MAX_SELECTION_ARGS = 500
+        private const val DELETED = 0
+
+        private val PROJECTION = arrayOf(
+                Events._ID,
+                Events.DELETED,
+                Events.DTSTART,
+                Events.DTEND,
+                Events.TITLE,
+                Events.DESCRIPTION,
+                Events.EVENT_LOCATION
+        )
+        private const val COLUMN_ID = 0
+        private const val COLUMN_DELETED = 1
+    }
+}
@@ -3,14 +3,20 @@ package com.ready.be.beready.logic
 import android.Manifest
 import android.accounts.AccountManager
 import android.annotation.SuppressLint
+import android.content.ContentProviderOperation
+import android.content.ContentResolver
 import android.content.ContentUris
 import android.content.ContentValues
 import android.content.Context
 import android.content.Entity
+import android.database.ContentObserver
+import android.database.DatabaseUtils
+import android.provider.CalendarContract
 import android.provider.CalendarContract.*
 import android.support.annotation.RequiresPermission
 import com.ready.be.beready.BeReadyApp
 import java.util.*
+import java.util.concurrent.atomic.AtomicLong
 import android.provider.CalendarContract.Calendars
 import android.provider.CalendarContract.CalendarEntity as CalendarEntityHelper
 import com.ready.be.beready.persistence.entity.Negotiation
@@ -24,15 +30,112 @@ val CalendarEntity.id: Int
 val CalendarEntity.timeZone: String
     get() = entityValues.getAsString("calendar_timezone")
 
+/** Result of [CalendarHelper.syncNegotiations]. New event ids are keyed by negotiation id. */
+data class CalendarSyncReport(
+        val insertedEventIds: Map<String, Long>,
+        val rowsUpdatedAmount: Int,
+        val rowsDeletedAmount: Int,
+        val failedNegotiationIds: List<String>
+)
+
 
 object CalendarHelper {
 
+    // Keeps a single applyBatch transaction of the calendar provider reasonably small
+    private const val MAX_BATCH_OPERATIONS = 100
+    private const val INSTANCE_KEY_PREFIX = "instance:"
+
+    // Columns of the default calendar whose change invalidates the cached entity
+    private val DEFAULT_CALENDAR_PROJECTION = arrayOf(
+            Calendars._ID,
+            Calendars.ACCOUNT_NAME,
+            Calendars.ACCOUNT_TYPE,
+            Calendars.OWNER_ACCOUNT,
+            Calendars.CALENDAR_TIME_ZONE
+    )
+
+    /**
+     * Busy time of negotiations (keyed by negotiation id) written through this helper and of
+     * calendar instances loaded with [indexCalendarInstances].
+     */
+    val busyIndex = BusyIntervalIndex()
+
+    // Default calendar cache, invalidated by account changes and changes of the Calendars table
+    private val defaultCalendarLock = Any()
+    @Volatile private var defaultCalendar: CalendarEntity? = null
+    @Volatile private var defaultCalendarResolved = false
+    @Volatile private var defaultCalendarVersion = 0
+    private var defaultCalendarInvalidationRegistered = false
+    private val defaultCalendarHits = AtomicLong()
+    private val defaultCalendarMisses = AtomicLong()
+
     private val DEFAULT_CALENDAR_ENTITY: CalendarEntity?
         get() {
-            val accountEmail = getFirstCreatedGoogleAccountEmail()
-            return accountEmail?.let { getCalendarForEmail(it) }
+            if (defaultCalendarResolved) {
+                defaultCalendarHits.incrementAndGet()
+                return defaultCalendar
+            }
+            return synchronized(defaultCalendarLock) {
+                if (defaultCalendarResolved) {
+                    defaultCalendarHits.incrementAndGet()
+                } else {
+                    defaultCalendarMisses.incrementAndGet()
+                    registerDefaultCalendarInvalidation(BeReadyApp.instance)
+                    val version = defaultCalendarVersion
+                    val accountEmail = getFirstCreatedGoogleAccountEmail()
+                    defaultCalendar = accountEmail?.let { getCalendarForEmail(it) }
+                    // an invalidation during the lookup means the result may already be stale
+                    defaultCalendarResolved = version == defaultCalendarVersion
+                }
+                defaultCalendar
+            }
         }
 
+    /** Number of default calendar lookups served from the cache. */
+    val defaultCalendarCacheHits: Long
+        get() = defaultCalendarHits.get()
+
+    /** Number of default calendar lookups that queried accounts and calendars. */
+    val defaultCalendarCacheMisses: Long
+        get() = defaultCalendarMisses.get()
+
+    fun invalidateDefaultCalendar() {
+        defaultCalendarVersion++
+        defaultCalendarResolved = false
+    }
+
+    @SuppressLint("MissingPermission")
+    private fun registerDefaultCalendarInvalidation(context: Context) {
+        if (defaultCalendarInvalidationRegistered) {
+            return
+        }
+        val appContext = context.applicationContext
+        AccountManager.get(appContext).addOnAccountsUpdatedListener({ invalidateDefaultCalendar() }, null, false)
+        // The provider also notifies this uri for every event write and calendar sync, so only
+        // a change of the cached calendar row itself invalidates the cache
+        appContext.contentResolver.registerContentObserver(Calendars.CONTENT_URI, true,
+                object : ContentObserver(null) {
+                    override fun onChange(selfChange: Boolean) {
+                        if (!defaultCalendarResolved || !isDefaultCalendarUnchanged(appContext)) {
+                            invalidateDefaultCalendar()
+                        }
+                    }
+                })
+        defaultCalendarInvalidationRegistered = true
+    }
+
+    @SuppressLint("MissingPermission")
+    private fun isDefaultCalendarUnchanged(context: Context): Boolean {
+        val cached = defaultCalendar ?: return false
+        val cursor = context.contentResolver.query(Calendars.CONTENT_URI, DEFAULT_CALENDAR_PROJECTION,
+                "${Calendars._ID} = ?", arrayOf(cached.id.toString()), null) ?: return false
+        return cursor.use {
+            cursor.moveToFirst() && DEFAULT_CALENDAR_PROJECTION.indices.all { column ->
+                cursor.getString(column) == cached.entityValues.getAsString(DEFAULT_CALENDAR_PROJECTION[column])
+            }
+        }
+    }
+
     fun extractEventsFromCalendar(beginTime: Calendar, endTime: Calendar,
                                   calendarEntity: CalendarEntity? = DEFAULT_CALENDAR_ENTITY,
                                   context: Context = BeReadyApp.instance): List<Entity> {
@@ -60,6 +163,81 @@ object CalendarHelper {
         }
     }
 
+    /**
+     * Queries instances of [calendarEntity] between [beginTime] and [endTime] reading only the
+     * [projection] columns, and passes them to [block] as a lazy sequence. The cursor is closed
+     * when [block] returns, so the sequence must not escape it.
+     * With [expandEntities] every row is expanded into a full event entity with attendees and
+     * reminders, which costs an extra query per row.
+     */
+    @SuppressLint("MissingPermission")
+    fun <R> queryInstances(beginTime: Calendar, endTime: Calendar,
+                           projection: Array<String>,
+                           expandEntities: Boolean = false,
+                           calendarEntity: CalendarEntity? = DEFAULT_CALENDAR_ENTITY,
+                           context: Context = BeReadyApp.instance,
+                           block: (Sequence<Entity>) -> R): R {
+        if (calendarEntity == null) {
+            return block(emptySequence())
+        }
+
+        val contentResolver = context.contentResolver
+        val builder = Instances.CONTENT_URI.buildUpon()
+        ContentUris.appendId(builder, beginTime.timeInMillis)
+        ContentUris.appendId(builder, endTime.timeInMillis)
+        val columns = if (expandEntities && Instances.EVENT_ID !in projection) {
+            projection + Instances.EVENT_ID
+        } else {
+            projection
+        }
+        val cursor = contentResolver.query(builder.build(),
+                columns,
+                "${Instances.CALENDAR_ID} = ?",
+                arrayOf(calendarEntity.id.toString()),
+                null) ?: return block(emptySequence())
+
+        return cursor.use {
+            val rows = generateSequence {
+                if (cursor.moveToNext()) {
+                    Entity(ContentValues().also { DatabaseUtils.cursorRowToContentValues(cursor, it) })
+                } else {
+                    null
+                }
+            }
+            block(if (expandEntities) rows.mapNotNull { expandEvent(it, contentResolver) } else rows)
+        }
+    }
+
+    private fun expandEvent(instance: Entity, contentResolver: ContentResolver): Entity? {
+        val eventId = instance.entityValues.getAsLong(Instances.EVENT_ID) ?: return null
+        val cursor = contentResolver.query(Events.CONTENT_URI, null,
+                "${Events._ID} = ?", arrayOf(eventId.toString()), null)
+        val eventsEntities = EventsEntity.newEntityIterator(cursor, contentResolver)
+        return try {
+            if (eventsEntities.hasNext()) eventsEntities.next() else null
+        } catch (e: Exception) {
+            null
+        } finally {
+            eventsEntities.close()
+        }
+    }
+
+    /** Replaces the calendar instances in [busyIndex] with the ones between [beginTime] and [endTime]. */
+    fun indexCalendarInstances(beginTime: Calendar, endTime: Calendar,
+                               calendarEntity: CalendarEntity? = DEFAULT_CALENDAR_ENTITY,
+                               context: Context = BeReadyApp.instance) {
+        val projection = arrayOf(Instances.EVENT_ID, Instances.BEGIN, Instances.END)
+        queryInstances(beginTime, endTime, projection, calendarEntity = calendarEntity, context = context) { rows ->
+            busyIndex.removeAll { it.startsWith(INSTANCE_KEY_PREFIX) }
+            for (row in rows) {
+                val values = row.entityValues
+                val begin = values.getAsLong(Instances.BEGIN) ?: continue
+                val end = values.getAsLong(Instances.END) ?: continue
+                busyIndex.put("$INSTANCE_KEY_PREFIX${values.getAsLong(Instances.EVENT_ID)}:$begin", begin, end)
+            }
+        }
+    }
+
     @SuppressLint("MissingPermission")
     fun insertNegotiationForCalendar(negotiation: Negotiation,
                                      timeInterval: LongRange,
@@ -70,45 +248,31 @@ object CalendarHelper {
         }
 
         val cr = context.contentResolver
-        val values = ContentValues().apply {
-            put(Events.DTSTART, timeInterval.start)
-            put(Events.DTEND, timeInterval.endInclusive)
-            put(Events.TITLE, negotiation.name)
-            put(Events.DESCRIPTION, negotiation.info)
-            put(Events.CALENDAR_ID, calendarEntity.id)
-            put(Events.EVENT_LOCATION, negotiation.location)
-            put(Events.EVENT_TIMEZONE, calendarEntity.timeZone)
-            put(Events.AVAILABILITY, Events.AVAILABILITY_BUSY)
-        }
-
-        val uri = cr.insert(Events.CONTENT_URI, values)
+        val uri = cr.insert(Events.CONTENT_URI, insertEventValues(negotiation, timeInterval.start,
+                timeInterval.endInclusive, calendarEntity))
+        busyIndex.put(negotiation.id, timeInterval.start, timeInterval.endInclusive)
         return uri.lastPathSegment.toLong()
     }
 
     @SuppressLint("MissingPermission")
     fun updateNegotiationForCalendar(negotiation: Negotiation,
                                      timeInterval: LongRange,
-                                     context: Context = BeReadyApp.instance) {
+                                     context: Context = BeReadyApp.instance): Int {
         if (negotiation.calendarEventId == null) {
             throw IllegalArgumentException("Negotiation field 'calendarEventId' cannot be null!")
         }
 
         val cr = context.contentResolver
-        val values = ContentValues().apply {
-            put(Events.DTSTART, timeInterval.start)
-            put(Events.DTEND, timeInterval.endInclusive)
-            put(Events.TITLE, negotiation.name)
-            put(Events.DESCRIPTION, negotiation.info)
-            put(Events.EVENT_LOCATION, negotiation.location)
-        }
-
         val eventUri = ContentUris.withAppendedId(Events.CONTENT_URI, negotiation.calendarEventId!!)
-        val rowsUpdatedAmount = cr.update(eventUri, values, null, null)
+        removeIndexedInstances(negotiation.calendarEventId!!)
+        busyIndex.put(negotiation.id, timeInterval.start, timeInterval.endInclusive)
+        return cr.update(eventUri, updateEventValues(negotiation, timeInterval.start,
+                timeInterval.endInclusive), null, null)
     }
 
     @SuppressLint("MissingPermission")
     fun deleteNegotiationInCalendar(negotiation: Negotiation,
-                                    context: Context = BeReadyApp.instance) {
+                                    context: Context = BeReadyApp.instance): Int {
         if (negotiation.calendarEventId == null) {
             throw IllegalArgumentException("Negotiation field 'calendarEventId' cannot be null!")
         }
@@ -116,7 +280,122 @@ object CalendarHelper {
         val cr = context.contentResolver
 
         val eventUri = ContentUris.withAppendedId(Events.CONTENT_URI, negotiation.calendarEventId!!)
-        val rowsDeletedAmount = cr.delete(eventUri, null, null)
+        removeIndexedInstances(negotiation.calendarEventId!!)
+        busyIndex.remove(negotiation.id)
+        return cr.delete(eventUri, null, null)
+    }
+
+    /**
+     * Brings the calendar in line with [negotiations] in chunked batches:
+     * negotiations with a time interval but no `calendarEventId` are inserted, those with both are
+     * updated, and those with an event id but no time interval, as well as [removedNegotiations],
+     * are deleted. New event ids are returned in the report; storing them is up to the caller.
+     */
+    @SuppressLint("MissingPermission")
+    fun syncNegotiations(negotiations: Collection<Negotiation>,
+                         removedNegotiations: Collection<Negotiation> = emptyList(),
+                         calendarEntity: CalendarEntity? = DEFAULT_CALENDAR_ENTITY,
+                         context: Context = BeReadyApp.instance): CalendarSyncReport {
+        val operations = ArrayList<SyncOperation>(negotiations.size + removedNegotiations.size)
+        for (negotiation in negotiations) {
+            val eventId = negotiation.calendarEventId
+            val hasTimeInterval = negotiation.hasTimeInterval
+            when {
+                eventId == null && hasTimeInterval && calendarEntity != null -> operations +=
+                        SyncOperation(negotiation, SyncAction.INSERT, ContentProviderOperation
+                                .newInsert(Events.CONTENT_URI)
+                                .withValues(insertEventValues(negotiation, negotiation.timeIntervalStart,
+                                        negotiation.timeIntervalEnd, calendarEntity))
+                                .build())
+                eventId != null && hasTimeInterval -> operations +=
+                        SyncOperation(negotiation, SyncAction.UPDATE, ContentProviderOperation
+                                .newUpdate(ContentUris.withAppendedId(Events.CONTENT_URI, eventId))
+                                .withValues(updateEventValues(negotiation, negotiation.timeIntervalStart,
+                                        negotiation.timeIntervalEnd))
+                                .build())
+                eventId != null -> operations += deleteOperation(negotiation, eventId)
+            }
+        }
+        for (negotiation in removedNegotiations) {
+            negotiation.calendarEventId?.let { operations += deleteOperation(negotiation, it) }
+        }
+
+        val insertedEventIds = HashMap<String, Long>()
+        val failedNegotiationIds = ArrayList<String>()
+        var rowsUpdatedAmount = 0
+        var rowsDeletedAmount = 0
+        val cr = context.contentResolver
+        for (chunk in operations.chunked(MAX_BATCH_OPERATIONS)) {
+            val results = try {
+                cr.applyBatch(CalendarContract.AUTHORITY, chunk.mapTo(ArrayList(chunk.size)) { it.operation })
+            } catch (e: Exception) {
+                chunk.mapTo(failedNegotiationIds) { it.negotiation.id }
+                continue
+            }
+            chunk.forEachIndexed { index, syncOperation ->
+                val result = results[index]
+                val negotiation = syncOperation.negotiation
+                syncOperation.eventId?.let { removeIndexedInstances(it) }
+                if (syncOperation.action == SyncAction.DELETE || !negotiation.hasTimeInterval) {
+                    busyIndex.remove(negotiation.id)
+                } else {
+                    busyIndex.put(negotiation.id, negotiation.timeIntervalStart, negotiation.timeIntervalEnd)
+                }
+                when (syncOperation.action) {
+                    SyncAction.INSERT -> result.uri?.lastPathSegment?.toLongOrNull()
+                            ?.let { insertedEventIds[syncOperation.negotiation.id] = it }
+                            ?: failedNegotiationIds.add(syncOperation.negotiation.id)
+                    SyncAction.UPDATE -> rowsUpdatedAmount += result.count ?: 0
+                    SyncAction.DELETE -> rowsDeletedAmount += result.count ?: 0
+                }
+            }
+        }
+        return CalendarSyncReport(insertedEventIds, rowsUpdatedAmount, rowsDeletedAmount, failedNegotiationIds)
+    }
+
+    /**
+     * Drops the indexed instances of a calendar event linked to a negotiation, whose busy time is
+     * tracked under the negotiation id from now on.
+     */
+    private fun removeIndexedInstances(eventId: Long) {
+        val prefix = "$INSTANCE_KEY_PREFIX$eventId:"
+        busyIndex.removeAll { it.startsWith(prefix) }
+    }
+
+    private fun deleteOperation(negotiation: Negotiation, eventId: Long) = SyncOperation(
+            negotiation, SyncAction.DELETE, ContentProviderOperation
+                    .newDelete(ContentUris.withAppendedId(Events.CONTENT_URI, eventId))
+                    .build())
+
+    private fun insertEventValues(negotiation: Negotiation,
+                                  start: Long, end: Long,
+                                  calendarEntity: CalendarEntity) = ContentValues().apply {
+        put(Events.DTSTART, start)
+        put(Events.DTEND, end)
+        put(Events.TITLE, negotiation.name)
+        put(Events.DESCRIPTION, negotiation.info)
+        put(Events.CALENDAR_ID, calendarEntity.id)
+        put(Events.EVENT_LOCATION, negotiation.location)
+        put(Events.EVENT_TIMEZONE, calendarEntity.timeZone)
+        put(Events.AVAILABILITY, Events.AVAILABILITY_BUSY)
+    }
+
+    private fun updateEventValues(negotiation: Negotiation,
+                                  start: Long, end: Long) = ContentValues().apply {
+        put(Events.DTSTART, start)
+        put(Events.DTEND, end)
+        put(Events.TITLE, negotiation.name)
+        put(Events.DESCRIPTION, negotiation.info)
+        put(Events.EVENT_LOCATION, negotiation.location)
+    }
+
+    private enum class SyncAction { INSERT, UPDATE, DELETE }
+
+    private class SyncOperation(val negotiation: Negotiation,
+                                val action: SyncAction,
+                                val operation: ContentProviderOperation) {
+        val eventId: Long?
+            get() = negotiation.calendarEventId
     }
 
     @SuppressLint("MissingPermission")
@@ -13,7 +13,6 @@ import com.itexus.smartgarlands.utils.validators.LocalizedRuntimeException
 import com.itexus.smartgarlands.utils.validators.PhoneNumberDoesNotExistException
 import io.reactivex.Completable
 import io.reactivex.Single
-import io.reactivex.disposables.CompositeDisposable
 import io.reactivex.disposables.Disposable
 
 interface MvpView {
@@ -37,11 +36,22 @@ interface ShowMessage {
 
 open class BaseMvpPresenter<T : MvpView> : MvpPresenter<T> {
     protected var mvpView: T? = null
-    private val lifecycleDisposables = CompositeDisposable()
+    private val lifecycleScope = SubscriptionScope()
+    private val startScope = SubscriptionScope()
+    private val intentScopes = HashMap<String, SubscriptionScope>()
+    private val mainThreadDispatcher = MainThreadDispatcher<T>()
 
     protected val isAttached
         get() = mvpView != null
 
+    protected var isStarted = false
+        private set
+
+    /** Subscriptions of this presenter that are still running, across all scopes. */
+    val liveSubscriptionCount: Int
+        get() = lifecycleScope.liveCount + startScope.liveCount +
+                synchronized(intentScopes) { intentScopes.values.sumBy { it.liveCount } }
+
     lateinit var appContext: Context
 
     @CallSuper
@@ -51,8 +61,27 @@ open class BaseMvpPresenter<T : MvpView> : MvpPresenter<T> {
 
     @CallSuper
     override fun detach() {
+        stop()
         mvpView = null
-        lifecycleDisposables.clear()
+        lifecycleScope.clear()
+        synchronized(intentScopes) {
+            intentScopes.values.forEach { it.clear() }
+            intentScopes.clear()
+        }
+        mainThreadDispatcher.clear()
+    }
+
+    /** Called by the view when it becomes visible. */
+    @CallSuper
+    open fun start() {
+        isStarted = true
+    }
+
+    /** Called by the view when it is no longer visible; disposes everything bound until stop. */
+    @CallSuper
+    open fun stop() {
+        isStarted = false
+        startScope.clear()
     }
 
     /* Extensions */
@@ -109,14 +138,95 @@ open class BaseMvpPresenter<T : MvpView> : MvpPresenter<T> {
         if (!isAttached) {
             throw IllegalStateException("MvpView isn't attached. Cannot bind to lifecycle.")
         }
-        lifecycleDisposables.add(this)
+        lifecycleScope.add(this)
+    }
+
+    fun Disposable.bindUntilStop() {
+        if (!isStarted) {
+            throw IllegalStateException("MvpView isn't started. Cannot bind until stop.")
+        }
+        startScope.add(this)
+    }
+
+    /**
+     * Binds to the lifecycle in the scope of one intent: the subscription made for the previous
+     * request of the same [intent] is disposed, e.g. to cancel a search superseded by a new one.
+     */
+    fun Disposable.bindToIntent(intent: String) {
+        if (!isAttached) {
+            throw IllegalStateException("MvpView isn't attached. Cannot bind to lifecycle.")
+        }
+        val scope = synchronized(intentScopes) { intentScopes.getOrPut(intent) { SubscriptionScope() } }
+        scope.clear()
+        scope.add(this)
     }
 
     fun T?.executeOnMainThread(block: T.() -> Unit) {
         if (Looper.myLooper() == Looper.getMainLooper()) {
             this?.block()
         } else {
-            Handler(Looper.getMainLooper()).post { this?.block() }
+            mainThreadDispatcher.post(this, block)
+        }
+    }
+}
+
+/**
+ * Runs blocks posted from background threads on the main thread. All blocks posted before the
+ * main thread gets to them run as one batch from a single reused [Runnable] on a shared [Handler],
+ * so a post allocates neither. [clear] drops the blocks that have not run yet.
+ */
+class MainThreadDispatcher<T> {
+
+    private var pendingViews = ArrayList<T?>()
+    private var pendingBlocks = ArrayList<T.() -> Unit>()
+    private var runningViews = ArrayList<T?>()
+    private var runningBlocks = ArrayList<T.() -> Unit>()
+    private var isScheduled = false
+
+    private val drainRunnable = Runnable { drain() }
+
+    fun post(view: T?, block: T.() -> Unit) {
+        synchronized(this) {
+            pendingViews.add(view)
+            pendingBlocks.add(block)
+            if (isScheduled) {
+                return
+            }
+            isScheduled = true
+        }
+        MAIN_HANDLER.post(drainRunnable)
+    }
+
+    @Synchronized
+    fun clear() {
+        pendingViews.clear()
+        pendingBlocks.clear()
+        isScheduled = false
+        MAIN_HANDLER.removeCallbacks(drainRunnable)
+    }
+
+    private fun drain() {
+        synchronized(this) {
+            // swap buffers, so blocks posted while this batch runs go to the next one
+            val views = pendingViews
+            val blocks = pendingBlocks
+            pendingViews = runningViews
+            pendingBlocks = runningBlocks
+            runningViews = views
+            runningBlocks = blocks
+            isScheduled = false
         }
+        try {
+            for (i in runningBlocks.indices) {
+                runningViews[i]?.let(runningBlocks[i])
+            }
+        } finally {
+            runningViews.clear()
+            runningBlocks.clear()
+        }
+    }
+
+    companion object {
+        private val MAIN_HANDLER = Handler(Looper.getMainLooper())
     }
 }
\ No newline at end of file
@@ -8,19 +8,22 @@ import com.itexus.smartgarlands.persistence.realm.model.GarlandPreview
 import com.itexus.smartgarlands.persistence.realm.model.Lamp
 import com.itexus.smartgarlands.utils.common.BaseMvpPresenter
 import com.itexus.smartgarlands.utils.common.Constants
+import com.itexus.smartgarlands.utils.common.animations.AnimationFrameEngine
 import com.itexus.smartgarlands.utils.common.animations.TextAnimation
+import com.itexus.smartgarlands.utils.rx.RetryPolicy
 import com.itexus.smartgarlands.utils.schedulers.SchedulersProvider
 import com.itexus.smartgarlands.utils.subscribeWithErrorLog
 import com.itexus.smartgarlands.utils.validators.LocalizedRuntimeException
-import io.reactivex.Flowable
+import io.reactivex.Observable
 import io.reactivex.Single
 import io.reactivex.android.schedulers.AndroidSchedulers
 import io.reactivex.functions.BiFunction
 import io.reactivex.schedulers.Schedulers
 import io.realm.Realm
+import io.realm.RealmChangeListener
 import io.realm.RealmObjectChangeListener
+import io.realm.RealmResults
 import io.realm.exceptions.RealmPrimaryKeyConstraintException
-import java.util.concurrent.TimeUnit
 import javax.inject.Inject
 
 class MainPresenter @Inject constructor(
@@ -29,8 +32,29 @@ class MainPresenter @Inject constructor(
 ) : BaseMvpPresenter<MainContract.View>(), MainContract.Presenter {
 
     private var realm: Realm? = null
+    private val frameEngine = AnimationFrameEngine(dataManager, schedulers.realm())
 
-    private val previewChangeListener = RealmObjectChangeListener<GarlandPreview> { preview, t ->
+    private val dbFetchRetryPolicy = RetryPolicy(
+            initialDelayMillis = Constants.DB_FETCH_RETRY_TIME,
+            maxDelayMillis = Constants.DB_FETCH_RETRY_TIME * 16,
+            maxAttempts = 6
+    )
+
+    // Loaded previews and animation lists, touched on the ui thread only. Managed previews are
+    // kept up to date by Realm, so an entry is only dropped when its object goes away. The lists
+    // of a type are dropped when Realm reports a change of an animation of that type.
+    private val previewCache = HashMap<GarlandType, GarlandPreview>()
+    private val animationsCache = HashMap<AnimationsKey, List<Animation>>()
+    private val animationsWatchers = HashMap<GarlandType, AnimationsWatcher>()
+    private var previewType: GarlandType? = null
+    private var shownAnimationsKey: AnimationsKey? = null
+    // chunks of a text animation being generated do not reload the list, it is reloaded once complete
+    private var generatingTextAnimations = 0
+
+    private val previewChangeListener = RealmObjectChangeListener<GarlandPreview> { preview, changeSet ->
+        if (changeSet?.isDeleted == true || !preview.isValid) {
+            previewType?.let { previewCache.remove(it) }
+        }
         if (isAttached) {
             mvpView?.refreshPreview()
         }
@@ -52,61 +76,191 @@ class MainPresenter @Inject constructor(
     }
 
     override fun detach() {
+        previewCache.clear()
+        animationsCache.clear()
+        animationsWatchers.values.forEach { it.stop() }
+        animationsWatchers.clear()
+        previewType = null
+        shownAnimationsKey = null
+        generatingTextAnimations = 0
+        frameEngine.invalidate()
         realm?.close()
         super.detach()
     }
 
     override fun loadAnimations(type: GarlandType,
                                 isSavedAnimationMode: Boolean) {
+        val animationsKey = AnimationsKey(type, isSavedAnimationMode)
+        shownAnimationsKey = animationsKey
+        val cachedPreview = getCachedPreview(type)
+        val cachedAnimations = animationsCache[animationsKey]
+        if (cachedPreview != null && cachedAnimations != null) {
+            setPreview(type, cachedPreview)
+            mvpView?.setGarlandsAnimation(cachedPreview, cachedAnimations)
+            return
+        }
         Single.zip<GarlandPreview, List<Animation>, Pair<GarlandPreview, List<Animation>>>(
-            dataManager.getGarlandPreviewByType(type),
-            dataManager.getAnimations(type, isOnlyReceived = !isSavedAnimationMode),
+            cachedPreview?.let { Single.just(it) } ?: dataManager.getGarlandPreviewByType(type),
+            cachedAnimations?.let { Single.just(it) }
+                    ?: dataManager.getAnimations(type, isOnlyReceived = !isSavedAnimationMode),
             BiFunction { preview, animations -> Pair(preview, animations) }
         )
-                .retryWhen { errorFlowable ->
-                    Flowable.interval(Constants.DB_FETCH_RETRY_TIME, TimeUnit.MILLISECONDS)
-                }
+                .compose(dbFetchRetryPolicy.forSingle())
                 .observeOn(schedulers.ui())
                 .subscribeWithErrorLog { pair ->
-                    preview = pair.first
+                    setPreview(type, pair.first)
+                    cacheAnimations(animationsKey, pair.second)
                     mvpView?.setGarlandsAnimation(pair.first, pair.second)
                 }
                 .bindToLifecycle()
     }
 
     override fun refreshGarlandPreviewForType(type: GarlandType) {
+        getCachedPreview(type)?.let {
+            setPreview(type, it)
+            mvpView?.setGarlandPreview(it)
+            return
+        }
         dataManager.getGarlandPreviewByType(type)
                 .observeOn(schedulers.ui())
                 .subscribeWithErrorLog {
-                    preview = it
+                    setPreview(type, it)
                     mvpView?.setGarlandPreview(preview)
                 }
                 .bindToLifecycle()
     }
 
+    /**
+     * Generates the animation [FRAMES_PER_CHUNK] frames at a time on the computation scheduler and
+     * appends every chunk to the stored animation as soon as it is ready, so neither the realm
+     * scheduler nor the memory holds the whole animation. The view is told how many frames are
+     * done after each chunk. Disposing, e.g. on detach or a new request, stops after the current
+     * chunk and deletes the partly written animation.
+     */
     override fun generateTextAnimation(text: String) {
-        Single.fromCallable {
-            TextAnimation(text).generateAnimation(name = text, type = GarlandType.NET)
-                    .apply { isCustom = true }
+        Observable.defer {
+            val generator = TextAnimation(text)
+            val frameCount = generator.frameCount
+            var isCreated = false
+            dataManager.createAnimation(name = text, type = GarlandType.NET, isCustom = true)
+                    .subscribeOn(schedulers.realm())
+                    .doOnComplete { isCreated = true }
+                    .andThen(Observable.range(0, (frameCount + FRAMES_PER_CHUNK - 1) / FRAMES_PER_CHUNK))
+                    .concatMap { chunk ->
+                        val from = chunk * FRAMES_PER_CHUNK
+                        val until = minOf(from + FRAMES_PER_CHUNK, frameCount)
+                        Single.fromCallable { generator.generateFrames(from, until) }
+                                .subscribeOn(schedulers.computation())
+                                .observeOn(schedulers.realm())
+                                .flatMapCompletable { frames -> dataManager.saveAnimationFrames(text, from, frames) }
+                                .andThen(Observable.just(until))
+                    }
+                    .doOnNext { generated ->
+                        mvpView.executeOnMainThread { showTextAnimationProgress(generated, frameCount) }
+                    }
+                    .doOnError { if (isCreated) deleteAnimation(text) }
+                    .doOnDispose { if (isCreated) deleteAnimation(text) }
         }
-                .flatMapCompletable(dataManager::saveAnimation)
-                //.observeOn(schedulers.ui())
-                .doOnSubscribe { mvpView?.showProgressRes(R.string.progress_creating_animation) }
-                .doOnTerminate { mvpView?.hideProgress() }
+                .ignoreElements()
+                .doOnSubscribe { generatingTextAnimations++ }
+                .doOnComplete { frameEngine.invalidate() }
+                .doFinally {
+                    mvpView.executeOnMainThread {
+                        generatingTextAnimations = maxOf(0, generatingTextAnimations - 1)
+                        invalidateAnimations(GarlandType.NET)
+                        hideTextAnimationProgress()
+                    }
+                }
                 .doOnError { error ->
                     if (error is RealmPrimaryKeyConstraintException) {
-                        mvpView?.showMessageRes(R.string.error_animation_with_given_name_already_exists)
+                        mvpView.executeOnMainThread { showMessageRes(R.string.error_animation_with_given_name_already_exists) }
                     } else if (error is LocalizedRuntimeException) {
-                        mvpView?.showMessageRes(error.errorMessageRes)
+                        mvpView.executeOnMainThread { showMessageRes(error.errorMessageRes) }
                     }
                 }
+                .subscribeWithErrorLog()
+                // a new request supersedes the one still in flight
+                .bindToIntent(INTENT_GENERATE_TEXT_ANIMATION)
+    }
+
+    private fun deleteAnimation(name: String) {
+        dataManager.deleteAnimation(name)
                 .subscribeOn(schedulers.realm())
                 .subscribeWithErrorLog()
-                .bindToLifecycle()
+    }
+
+    private fun setPreview(type: GarlandType, preview: GarlandPreview) {
+        previewType = type
+        this.preview = preview
+        // only managed previews are kept up to date, unmanaged ones are loaded again next time
+        if (preview.isManaged && preview.isValid) {
+            previewCache[type] = preview
+        }
+    }
+
+    private fun getCachedPreview(type: GarlandType): GarlandPreview? {
+        val cached = previewCache[type] ?: return null
+        if (!cached.isValid) {
+            previewCache.remove(type)
+            return null
+        }
+        return cached
+    }
+
+    private fun cacheAnimations(key: AnimationsKey, animations: List<Animation>) {
+        animationsCache[key] = animations
+        val realm = realm ?: return
+        if (key.type !in animationsWatchers) {
+            val results = realm.where(Animation::class.java)
+                    .equalTo(ANIMATION_TYPE_FIELD, key.type.name)
+                    .findAll()
+            animationsWatchers[key.type] = AnimationsWatcher(results) {
+                if (key.type != GarlandType.NET || generatingTextAnimations == 0) {
+                    invalidateAnimations(key.type)
+                }
+            }
+        }
+    }
+
+    /** Drops the cached lists of the type, and loads the one on screen again. */
+    private fun invalidateAnimations(type: GarlandType) {
+        animationsCache.remove(AnimationsKey(type, true))
+        animationsCache.remove(AnimationsKey(type, false))
+        val shownKey = shownAnimationsKey
+        if (isAttached && shownKey != null && shownKey.type == type) {
+            loadAnimations(shownKey.type, shownKey.isSavedAnimationMode)
+        }
     }
 
     override fun getAnimationLampsForTimestamp(animationName: String,
                                                timestamp: Int): List<Lamp>? {
         return dataManager.getAnimationLampsForTimestamp(animationName, timestamp)
     }
+
+    /** Render loop variant of [getAnimationLampsForTimestamp], see [AnimationFrameEngine.getLampColors]. */
+    override fun getAnimationLampColors(animationName: String, timestamp: Int, colors: IntArray): Int {
+        return frameEngine.getLampColors(animationName, timestamp, colors)
+    }
+
+    companion object {
+        private const val INTENT_GENERATE_TEXT_ANIMATION = "generateTextAnimation"
+        private const val FRAMES_PER_CHUNK = 64
+        private const val ANIMATION_TYPE_FIELD = "type"
+    }
+
+    private data class AnimationsKey(val type: GarlandType, val isSavedAnimationMode: Boolean)
+
+    private class AnimationsWatcher(private val results: RealmResults<Animation>, onChange: () -> Unit) {
+        private val listener = RealmChangeListener<RealmResults<Animation>> { onChange() }
+
+        init {
+            results.addChangeListener(listener)
+        }
+
+        fun stop() {
+            if (results.isValid) {
+                results.removeChangeListener(listener)
+            }
+        }
+    }
 }
\ No newline at end of file
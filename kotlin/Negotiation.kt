@@ -1,12 +1,15 @@
 package com.ready.be.beready.persistence.entity
 
 import android.text.format.DateUtils
-import com.ready.be.beready.utils.hours
-import com.ready.be.beready.utils.minutes
+import io.realm.Realm
+import io.realm.RealmAsyncTask
 import io.realm.RealmList
+import io.realm.RealmModel
 import io.realm.RealmObject
+import io.realm.annotations.Ignore
 import io.realm.annotations.Index
 import io.realm.annotations.PrimaryKey
+import java.lang.reflect.Modifier
 import java.util.*
 
 /**
@@ -44,67 +47,160 @@ open class Negotiation(
         var calendarEventId: Long? = null // Id, that corresponds to Google Calendar Event Id
 ) : RealmObject() {
 
+    // Cache of combinedTimeInMillis, valid while date and time keep the millis it was computed for
+    @Ignore private var cachedDateMillis: Long = NO_TIME
+    @Ignore private var cachedTimeMillis: Long = NO_TIME
+    @Ignore private var cachedCombinedMillis: Long = NO_TIME
+
     /** Date, that combines date and time fields */
     val combinedDate: Date?
         get() {
-            return if (date == null || time == null) {
-                null
-            } else {
-                val timeCalendar = Calendar.getInstance().also {
-                    it.time = time
-                }
-                val dateCalendar = Calendar.getInstance().also {
-                    it.time = date
-                }
-                dateCalendar.apply {
-                    hours = timeCalendar.hours
-                    minutes = timeCalendar.minutes
-                }.time
-            }
+            val combinedMillis = combinedTimeInMillis
+            return if (combinedMillis == NO_TIME) null else Date(combinedMillis)
         }
 
-    val timeInterval: LongRange?
-        get() = when {
-            combinedDate != null -> {
-                val startTime = combinedDate!!.time
-                startTime..(startTime + DateUtils.HOUR_IN_MILLIS)
+    /** [combinedDate] in epoch millis, or [NO_TIME] if date or time is not set */
+    val combinedTimeInMillis: Long
+        get() {
+            val dateMillis = date?.time ?: return NO_TIME
+            val timeMillis = time?.time ?: return NO_TIME
+            if (dateMillis != cachedDateMillis || timeMillis != cachedTimeMillis) {
+                cachedCombinedMillis = combine(dateMillis, timeMillis)
+                cachedDateMillis = dateMillis
+                cachedTimeMillis = timeMillis
             }
-            date != null -> {
-                val startTime = date!!.time
-                startTime..(startTime + DateUtils.DAY_IN_MILLIS)
+            return cachedCombinedMillis
+        }
+
+    val hasTimeInterval: Boolean
+        get() = date != null
+
+    /** Start of [timeInterval] in epoch millis, or [NO_TIME] */
+    val timeIntervalStart: Long
+        get() {
+            val combinedMillis = combinedTimeInMillis
+            return if (combinedMillis != NO_TIME) combinedMillis else date?.time ?: NO_TIME
+        }
+
+    /** End of [timeInterval] in epoch millis, or [NO_TIME] */
+    val timeIntervalEnd: Long
+        get() {
+            val combinedMillis = combinedTimeInMillis
+            if (combinedMillis != NO_TIME) {
+                return combinedMillis + DateUtils.HOUR_IN_MILLIS
             }
-            else -> null
+            val dateMillis = date?.time ?: return NO_TIME
+            return dateMillis + DateUtils.DAY_IN_MILLIS
         }
 
-    fun copyWithNewId(): Negotiation {
-        var negotiation = Negotiation(UUID.randomUUID().toString())
-        negotiation.name = name
-        negotiation.itemNumber = itemNumber
-        negotiation.date = date
-        negotiation.time = time
-        negotiation.location = location
-        negotiation.info = info
-        negotiation.isDraft = isDraft
-        negotiation.isArchived = isArchived
-        negotiation.initialized = initialized
-        negotiation.isCompleted = isCompleted
-        negotiation.currentWizardStep = currentWizardStep
-        negotiation.ourParticipants = ourParticipants
-        negotiation.theirParticipants = theirParticipants
-        negotiation.ourInterest = ourInterest
-        negotiation.theirInterest = theirInterest
-        negotiation.usePositionText = usePositionText
-        negotiation.positionStrength = positionStrength
-        negotiation.positionWeakness = positionWeakness
-        negotiation.ourPressure = ourPressure
-        negotiation.theirsPressure = theirsPressure
-        negotiation.ourPlanB = ourPlanB
-        negotiation.theirPlanB = theirPlanB
-        negotiation.position = position
-        negotiation.extraAgreement = extraAgreement
-        negotiation.isStateInterests = isStateInterests
-        negotiation.nextStep = nextStep
-        negotiation.attachments = attachments
+    val timeInterval: LongRange?
+        get() = if (hasTimeInterval) timeIntervalStart..timeIntervalEnd else null
+
+    /**
+     * Copy of this negotiation under [newId], without the calendar link.
+     * The copy shares nothing with the original: a managed negotiation is detached from its
+     * realm first, an unmanaged one has its child objects and [position] copied, so editing the
+     * copy never changes the original.
+     */
+    fun copyWithNewId(newId: String = UUID.randomUUID().toString()): Negotiation {
+        val source = if (isManaged && isValid) realm.copyFromRealm(this) else this
+        val isDetachedCopy = source !== this
+        var negotiation = Negotiation(newId)
+        negotiation.name = source.name
+        negotiation.itemNumber = source.itemNumber
+        negotiation.date = source.date
+        negotiation.time = source.time
+        negotiation.location = source.location
+        negotiation.info = source.info
+        negotiation.isDraft = source.isDraft
+        negotiation.isArchived = source.isArchived
+        negotiation.initialized = source.initialized
+        negotiation.isCompleted = source.isCompleted
+        negotiation.currentWizardStep = source.currentWizardStep
+        negotiation.ourParticipants = source.ourParticipants.copyList(isDetachedCopy)
+        negotiation.theirParticipants = source.theirParticipants.copyList(isDetachedCopy)
+        negotiation.ourInterest = source.ourInterest.copyList(isDetachedCopy)
+        negotiation.theirInterest = source.theirInterest.copyList(isDetachedCopy)
+        negotiation.usePositionText = source.usePositionText
+        negotiation.positionStrength = source.positionStrength
+        negotiation.positionWeakness = source.positionWeakness
+        negotiation.ourPressure = source.ourPressure
+        negotiation.theirsPressure = source.theirsPressure
+        negotiation.ourPlanB = source.ourPlanB
+        negotiation.theirPlanB = source.theirPlanB
+        negotiation.position = if (isDetachedCopy) source.position else source.position.deepCopy()
+        negotiation.extraAgreement = source.extraAgreement
+        negotiation.isStateInterests = source.isStateInterests
+        negotiation.nextStep = source.nextStep
+        negotiation.attachments = source.attachments.copyList(isDetachedCopy)
         return negotiation
     }
-}
\ No newline at end of file
+
+    companion object {
+        /** Marker for a missing time value in the primitive time accessors */
+        const val NO_TIME = Long.MIN_VALUE
+
+        /**
+         * Day of [dateMillis] with hours and minutes of [timeMillis] in the default time zone,
+         * same as setting the hours and minutes of a [Calendar], without allocating one.
+         */
+        private fun combine(dateMillis: Long, timeMillis: Long): Long {
+            val timeZone = TimeZone.getDefault()
+            val localDateMillis = dateMillis + timeZone.getOffset(dateMillis)
+            val localTimeMillis = timeMillis + timeZone.getOffset(timeMillis)
+            val localCombinedMillis = localDateMillis - floorMod(localDateMillis, DateUtils.DAY_IN_MILLIS) +
+                    floorMod(localTimeMillis, DateUtils.DAY_IN_MILLIS) / DateUtils.MINUTE_IN_MILLIS * DateUtils.MINUTE_IN_MILLIS +
+                    floorMod(localDateMillis, DateUtils.MINUTE_IN_MILLIS)
+            return localCombinedMillis - timeZone.getOffset(localCombinedMillis - timeZone.getOffset(localCombinedMillis))
+        }
+
+        private fun floorMod(value: Long, divisor: Long): Long = ((value % divisor) + divisor) % divisor
+
+        /** New list with the same elements if they are already detached copies, otherwise with copies of them. */
+        private fun <E : RealmModel> RealmList<E>.copyList(isDetached: Boolean): RealmList<E> =
+                RealmList<E>().also { list -> mapTo(list) { if (isDetached) it else it.deepCopy() } }
+
+        /**
+         * Field by field copy of an unmanaged model, copying nested models and model lists as well.
+         * Managed models are detached with `copyFromRealm` instead.
+         */
+        @Suppress("UNCHECKED_CAST")
+        private fun <E : RealmModel> E.deepCopy(): E {
+            val copy = javaClass.newInstance()
+            var type: Class<*>? = javaClass
+            while (type != null && type != RealmObject::class.java && type != Any::class.java) {
+                for (field in type.declaredFields) {
+                    if (Modifier.isStatic(field.modifiers) || Modifier.isTransient(field.modifiers)) {
+                        continue
+                    }
+                    field.isAccessible = true
+                    val value = field.get(this)
+                    field.set(copy, when (value) {
+                        is RealmModel -> value.deepCopy()
+                        is RealmList<*> -> RealmList<Any?>().also { list ->
+                            value.mapTo(list) { if (it is RealmModel) it.deepCopy() else it }
+                        }
+                        else -> value
+                    })
+                }
+                type = type.superclass
+            }
+            return copy
+        }
+    }
+}
+
+/**
+ * Copies negotiation [sourceId] with its whole child graph under a new id in a single
+ * background transaction and reports the new id.
+ */
+fun Realm.copyNegotiationAsync(sourceId: String,
+                               onSuccess: (newId: String) -> Unit = {},
+                               onError: (Throwable) -> Unit = {}): RealmAsyncTask {
+    val newId = UUID.randomUUID().toString()
+    return executeTransactionAsync({ realm ->
+        val source = realm.where(Negotiation::class.java).equalTo("id", sourceId).findFirst()
+                ?: throw IllegalArgumentException("Negotiation '$sourceId' does not exist!")
+        realm.copyToRealm(source.copyWithNewId(newId))
+    }, { onSuccess(newId) }, { error -> onError(error) })
+}
@@ -0,0 +1,133 @@
+package com.itexus.smartgarlands.utils.rx
+
+import io.reactivex.Flowable
+import io.reactivex.Scheduler
+import io.reactivex.Single
+import io.reactivex.SingleTransformer
+import io.reactivex.schedulers.Schedulers
+import java.util.*
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Capped exponential backoff with jitter, a maximum attempt count and a circuit breaker
+ * shared by every pipeline composed with this policy.
+ * While the circuit is open, subscriptions fail fast with [CircuitOpenException]. Once the open
+ * period is over a single probe call is let through; its success closes the circuit, its failure
+ * opens it again.
+ */
+class RetryPolicy(
+        private val initialDelayMillis: Long = 500,
+        private val maxDelayMillis: Long = TimeUnit.SECONDS.toMillis(30),
+        private val maxAttempts: Int = 5,
+        private val jitter: Double = 0.5,
+        private val failureThreshold: Int = 5,
+        private val openDurationMillis: Long = TimeUnit.SECONDS.toMillis(30),
+        private val scheduler: Scheduler = Schedulers.computation()
+) {
+
+    class CircuitOpenException : RuntimeException("Circuit is open, call rejected")
+
+    private val random = Random()
+    private val consecutiveFailures = AtomicInteger()
+    @Volatile private var openedAtMillis = CLOSED
+    private val probeInFlight = AtomicBoolean()
+
+    private val retryCounter = AtomicLong()
+    private val circuitOpenCounter = AtomicLong()
+    private val rejectedCounter = AtomicLong()
+
+    val retryCount: Long
+        get() = retryCounter.get()
+    val circuitOpenCount: Long
+        get() = circuitOpenCounter.get()
+    val rejectedCount: Long
+        get() = rejectedCounter.get()
+
+    /** `true` while calls are rejected: during the open period and while a probe is in flight. */
+    val isOpen: Boolean
+        get() {
+            val openedAt = openedAtMillis
+            return openedAt != CLOSED && (now() - openedAt < openDurationMillis || probeInFlight.get())
+        }
+
+    init {
+        require(initialDelayMillis > 0 && maxDelayMillis >= initialDelayMillis) { "Invalid retry delays" }
+        require(maxAttempts > 0 && failureThreshold > 0) { "maxAttempts and failureThreshold must be positive" }
+        require(jitter in 0.0..1.0) { "jitter must be between 0 and 1" }
+    }
+
+    fun <T> forSingle(): SingleTransformer<T, T> = SingleTransformer { upstream ->
+        Single.defer {
+            when (acquire()) {
+                Permit.REJECT -> {
+                    rejectedCounter.incrementAndGet()
+                    Single.error<T>(CircuitOpenException())
+                }
+                Permit.PROBE -> upstream.doOnSuccess { recordSuccess() }.doOnDispose { probeInFlight.set(false) }
+                Permit.PASS -> upstream.doOnSuccess { recordSuccess() }
+            }
+        }.retryWhen { errors -> retries(errors) }
+    }
+
+    private fun retries(errors: Flowable<Throwable>): Flowable<Long> {
+        val attempt = AtomicInteger(1)
+        return errors.flatMap { error ->
+            if (error is CircuitOpenException) {
+                return@flatMap Flowable.error<Long>(error)
+            }
+            recordFailure()
+            if (attempt.get() >= maxAttempts || isOpen) {
+                Flowable.error<Long>(error)
+            } else {
+                retryCounter.incrementAndGet()
+                Flowable.timer(delayForAttempt(attempt.getAndIncrement()), TimeUnit.MILLISECONDS, scheduler)
+            }
+        }
+    }
+
+    private fun delayForAttempt(attempt: Int): Long {
+        var delay = initialDelayMillis shl minOf(attempt - 1, 30)
+        if (delay <= 0 || delay > maxDelayMillis) {
+            delay = maxDelayMillis
+        }
+        val factor = synchronized(random) { 1 - jitter * random.nextDouble() }
+        return Math.round(delay * factor)
+    }
+
+    /** Whether a call may go through now; once the open period is over only one probe may. */
+    private fun acquire(): Permit {
+        val openedAt = openedAtMillis
+        return when {
+            openedAt == CLOSED -> Permit.PASS
+            now() - openedAt < openDurationMillis -> Permit.REJECT
+            probeInFlight.compareAndSet(false, true) -> Permit.PROBE
+            else -> Permit.REJECT
+        }
+    }
+
+    private fun recordSuccess() {
+        consecutiveFailures.set(0)
+        openedAtMillis = CLOSED
+        probeInFlight.set(false)
+    }
+
+    private fun recordFailure() {
+        val failures = consecutiveFailures.incrementAndGet()
+        val probeFailed = probeInFlight.compareAndSet(true, false)
+        if (probeFailed || (failures >= failureThreshold && openedAtMillis == CLOSED)) {
+            openedAtMillis = now()
+            circuitOpenCounter.incrementAndGet()
+        }
+    }
+
+    private enum class Permit { PASS, PROBE, REJECT }
+
+    private fun now() = scheduler.now(TimeUnit.MILLISECONDS)
+
+    companion object {
+        private const val CLOSED = -1L
+    }
+}
@@ -0,0 +1,48 @@
+package com.itexus.smartgarlands.utils.common
+
+import io.reactivex.disposables.Disposable
+
+/**
+ * Subscriptions of one presenter scope, e.g. attach to detach. Like a `CompositeDisposable` it can
+ * be cleared and reused; unlike it, it drops subscriptions that finished on their own when new
+ * ones are added, instead of holding them until the next [clear], and it reports how many are
+ * still live, so leaks show up in tests.
+ */
+class SubscriptionScope {
+
+    private val disposables = HashSet<Disposable>()
+
+    /** Number of subscriptions that were still live when the scope was cleared. */
+    var disposedCount = 0L
+        @Synchronized get
+        private set
+
+    /** Number of subscriptions that are neither finished nor disposed. */
+    val liveCount: Int
+        @Synchronized get() {
+            pruneFinished()
+            return disposables.size
+        }
+
+    @Synchronized
+    fun add(disposable: Disposable) {
+        pruneFinished()
+        disposables.add(disposable)
+    }
+
+    /** Disposes every live subscription; the scope can be used again afterwards. */
+    @Synchronized
+    fun clear() {
+        for (disposable in disposables) {
+            if (!disposable.isDisposed) {
+                disposable.dispose()
+                disposedCount++
+            }
+        }
+        disposables.clear()
+    }
+
+    private fun pruneFinished() {
+        disposables.removeAll { it.isDisposed }
+    }
+}
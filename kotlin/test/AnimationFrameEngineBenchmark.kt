@@ -0,0 +1,80 @@
+package com.itexus.smartgarlands.utils.common.animations
+
+import com.itexus.smartgarlands.domain.DataManager
+import com.itexus.smartgarlands.persistence.realm.model.Lamp
+import io.reactivex.schedulers.Schedulers
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.mockito.ArgumentMatchers.anyInt
+import org.mockito.ArgumentMatchers.anyString
+import org.mockito.Mockito.`when`
+import org.mockito.Mockito.mock
+import java.lang.management.ManagementFactory
+
+/**
+ * Frame time of [AnimationFrameEngine.getLampColors] on a large NET animation once indexed:
+ * time and allocated bytes per rendered frame, against querying [DataManager] for every frame.
+ */
+class AnimationFrameEngineBenchmark {
+
+    @Test
+    fun indexedFramesAreReadWithoutAllocation() {
+        val dataManager = fakeDataManager()
+        val engine = AnimationFrameEngine(dataManager, Schedulers.trampoline())
+        val colors = IntArray(LAMPS)
+        // the first lookup builds the index on the trampoline scheduler
+        engine.getLampColors(ANIMATION, FIRST_TIMESTAMP, colors)
+        assertEquals(FRAMES, engine.frameCount)
+
+        val threads = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+        val threadId = Thread.currentThread().id
+        repeat(WARMUP_ROUNDS) { render(engine, colors) }
+
+        val startBytes = threads.getThreadAllocatedBytes(threadId)
+        val startNanos = System.nanoTime()
+        repeat(ROUNDS) { render(engine, colors) }
+        val indexedNanos = (System.nanoTime() - startNanos) / (ROUNDS * FRAMES)
+        val indexedBytes = (threads.getThreadAllocatedBytes(threadId) - startBytes) / (ROUNDS * FRAMES)
+
+        val queryStartNanos = System.nanoTime()
+        for (timestamp in FIRST_TIMESTAMP until FIRST_TIMESTAMP + FRAMES) {
+            dataManager.getAnimationLampsForTimestamp(ANIMATION, timestamp)
+        }
+        val queryNanos = (System.nanoTime() - queryStartNanos) / FRAMES
+
+        println("Frame of $LAMPS lamps: $indexedNanos ns and $indexedBytes bytes indexed, " +
+                "$queryNanos ns per DataManager query")
+        assertEquals(0L, indexedBytes)
+        assertTrue(indexedNanos < queryNanos)
+    }
+
+    private fun render(engine: AnimationFrameEngine, colors: IntArray) {
+        for (timestamp in FIRST_TIMESTAMP until FIRST_TIMESTAMP + FRAMES) {
+            engine.getLampColors(ANIMATION, timestamp, colors)
+        }
+    }
+
+    /** Animation whose timestamps do not start at 0, with a fresh lamp list per query like Realm. */
+    private fun fakeDataManager(): DataManager {
+        val dataManager = mock(DataManager::class.java)
+        `when`(dataManager.getAnimationFrameTimestamps(anyString()))
+                .thenReturn((FIRST_TIMESTAMP until FIRST_TIMESTAMP + FRAMES).toList())
+        `when`(dataManager.getAnimationLampsForTimestamp(anyString(), anyInt())).thenAnswer { invocation ->
+            val timestamp = invocation.getArgument<Int>(1)
+            List(LAMPS) { lamp ->
+                mock(Lamp::class.java).also { `when`(it.color).thenReturn(timestamp * 31 + lamp) }
+            }
+        }
+        return dataManager
+    }
+
+    companion object {
+        private const val ANIMATION = "net"
+        private const val FIRST_TIMESTAMP = 12
+        private const val FRAMES = 600
+        private const val LAMPS = 300
+        private const val WARMUP_ROUNDS = 20
+        private const val ROUNDS = 100
+    }
+}